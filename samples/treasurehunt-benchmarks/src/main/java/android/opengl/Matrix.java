@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.opengl;
+
+/**
+ * A pure-Java stand-in for {@code android.opengl.Matrix}, so the renderer's matrix math can be
+ * benchmarked on a desktop JVM.
+ *
+ * <p>Only the methods the sample uses are provided. They follow the framework implementation:
+ * column-major 4x4 matrices, angles in degrees, and a shared scratch buffer for the in-place
+ * rotation.
+ */
+public class Matrix {
+
+  private static final float[] sTemp = new float[32];
+
+  public static void multiplyMM(float[] result, int resultOffset,
+      float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+    for (int i = 0; i < 4; i++) {
+      float rhs0 = rhs[rhsOffset + i * 4];
+      float rhs1 = rhs[rhsOffset + i * 4 + 1];
+      float rhs2 = rhs[rhsOffset + i * 4 + 2];
+      float rhs3 = rhs[rhsOffset + i * 4 + 3];
+      float r0 = lhs[lhsOffset] * rhs0 + lhs[lhsOffset + 4] * rhs1
+          + lhs[lhsOffset + 8] * rhs2 + lhs[lhsOffset + 12] * rhs3;
+      float r1 = lhs[lhsOffset + 1] * rhs0 + lhs[lhsOffset + 5] * rhs1
+          + lhs[lhsOffset + 9] * rhs2 + lhs[lhsOffset + 13] * rhs3;
+      float r2 = lhs[lhsOffset + 2] * rhs0 + lhs[lhsOffset + 6] * rhs1
+          + lhs[lhsOffset + 10] * rhs2 + lhs[lhsOffset + 14] * rhs3;
+      float r3 = lhs[lhsOffset + 3] * rhs0 + lhs[lhsOffset + 7] * rhs1
+          + lhs[lhsOffset + 11] * rhs2 + lhs[lhsOffset + 15] * rhs3;
+      result[resultOffset + i * 4] = r0;
+      result[resultOffset + i * 4 + 1] = r1;
+      result[resultOffset + i * 4 + 2] = r2;
+      result[resultOffset + i * 4 + 3] = r3;
+    }
+  }
+
+  public static void multiplyMV(float[] resultVec, int resultVecOffset,
+      float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+    float x = rhsVec[rhsVecOffset];
+    float y = rhsVec[rhsVecOffset + 1];
+    float z = rhsVec[rhsVecOffset + 2];
+    float w = rhsVec[rhsVecOffset + 3];
+    for (int i = 0; i < 4; i++) {
+      resultVec[resultVecOffset + i] = lhsMat[lhsMatOffset + i] * x
+          + lhsMat[lhsMatOffset + 4 + i] * y
+          + lhsMat[lhsMatOffset + 8 + i] * z
+          + lhsMat[lhsMatOffset + 12 + i] * w;
+    }
+  }
+
+  public static void setIdentityM(float[] sm, int smOffset) {
+    for (int i = 0; i < 16; i++) {
+      sm[smOffset + i] = 0;
+    }
+    for (int i = 0; i < 16; i += 5) {
+      sm[smOffset + i] = 1.0f;
+    }
+  }
+
+  public static void transposeM(float[] mTrans, int mTransOffset, float[] m, int mOffset) {
+    for (int i = 0; i < 4; i++) {
+      int mBase = i * 4 + mOffset;
+      mTrans[i + mTransOffset] = m[mBase];
+      mTrans[i + 4 + mTransOffset] = m[mBase + 1];
+      mTrans[i + 8 + mTransOffset] = m[mBase + 2];
+      mTrans[i + 12 + mTransOffset] = m[mBase + 3];
+    }
+  }
+
+  public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+    for (int i = 0; i < 4; i++) {
+      int mi = mOffset + i;
+      m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+    }
+  }
+
+  public static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+    for (int i = 0; i < 4; i++) {
+      int mi = mOffset + i;
+      m[mi] *= x;
+      m[4 + mi] *= y;
+      m[8 + mi] *= z;
+    }
+  }
+
+  public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+    synchronized (sTemp) {
+      setRotateM(sTemp, 0, a, x, y, z);
+      multiplyMM(sTemp, 16, m, mOffset, sTemp, 0);
+      System.arraycopy(sTemp, 16, m, mOffset, 16);
+    }
+  }
+
+  public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+    rm[rmOffset + 3] = 0;
+    rm[rmOffset + 7] = 0;
+    rm[rmOffset + 11] = 0;
+    rm[rmOffset + 12] = 0;
+    rm[rmOffset + 13] = 0;
+    rm[rmOffset + 14] = 0;
+    rm[rmOffset + 15] = 1;
+    a *= (float) (Math.PI / 180.0f);
+    float s = (float) Math.sin(a);
+    float c = (float) Math.cos(a);
+    if (1.0f == x && 0.0f == y && 0.0f == z) {
+      rm[rmOffset + 5] = c;
+      rm[rmOffset + 10] = c;
+      rm[rmOffset + 6] = s;
+      rm[rmOffset + 9] = -s;
+      rm[rmOffset + 1] = 0;
+      rm[rmOffset + 2] = 0;
+      rm[rmOffset + 4] = 0;
+      rm[rmOffset + 8] = 0;
+      rm[rmOffset] = 1;
+    } else if (0.0f == x && 1.0f == y && 0.0f == z) {
+      rm[rmOffset] = c;
+      rm[rmOffset + 10] = c;
+      rm[rmOffset + 8] = s;
+      rm[rmOffset + 2] = -s;
+      rm[rmOffset + 1] = 0;
+      rm[rmOffset + 4] = 0;
+      rm[rmOffset + 6] = 0;
+      rm[rmOffset + 9] = 0;
+      rm[rmOffset + 5] = 1;
+    } else if (0.0f == x && 0.0f == y && 1.0f == z) {
+      rm[rmOffset] = c;
+      rm[rmOffset + 5] = c;
+      rm[rmOffset + 1] = s;
+      rm[rmOffset + 4] = -s;
+      rm[rmOffset + 2] = 0;
+      rm[rmOffset + 6] = 0;
+      rm[rmOffset + 8] = 0;
+      rm[rmOffset + 9] = 0;
+      rm[rmOffset + 10] = 1;
+    } else {
+      float len = (float) Math.sqrt(x * x + y * y + z * z);
+      if (1.0f != len) {
+        float recipLen = 1.0f / len;
+        x *= recipLen;
+        y *= recipLen;
+        z *= recipLen;
+      }
+      float nc = 1.0f - c;
+      float xy = x * y;
+      float yz = y * z;
+      float zx = z * x;
+      float xs = x * s;
+      float ys = y * s;
+      float zs = z * s;
+      rm[rmOffset] = x * x * nc + c;
+      rm[rmOffset + 4] = xy * nc - zs;
+      rm[rmOffset + 8] = zx * nc + ys;
+      rm[rmOffset + 1] = xy * nc + zs;
+      rm[rmOffset + 5] = y * y * nc + c;
+      rm[rmOffset + 9] = yz * nc - xs;
+      rm[rmOffset + 2] = zx * nc - ys;
+      rm[rmOffset + 6] = yz * nc + xs;
+      rm[rmOffset + 10] = z * z * nc + c;
+    }
+  }
+
+  public static void setLookAtM(float[] rm, int rmOffset,
+      float eyeX, float eyeY, float eyeZ,
+      float centerX, float centerY, float centerZ,
+      float upX, float upY, float upZ) {
+    float fx = centerX - eyeX;
+    float fy = centerY - eyeY;
+    float fz = centerZ - eyeZ;
+
+    float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+    fx *= rlf;
+    fy *= rlf;
+    fz *= rlf;
+
+    // s = f x up
+    float sx = fy * upZ - fz * upY;
+    float sy = fz * upX - fx * upZ;
+    float sz = fx * upY - fy * upX;
+
+    float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+    sx *= rls;
+    sy *= rls;
+    sz *= rls;
+
+    // u = s x f
+    float ux = sy * fz - sz * fy;
+    float uy = sz * fx - sx * fz;
+    float uz = sx * fy - sy * fx;
+
+    rm[rmOffset] = sx;
+    rm[rmOffset + 1] = ux;
+    rm[rmOffset + 2] = -fx;
+    rm[rmOffset + 3] = 0.0f;
+    rm[rmOffset + 4] = sy;
+    rm[rmOffset + 5] = uy;
+    rm[rmOffset + 6] = -fy;
+    rm[rmOffset + 7] = 0.0f;
+    rm[rmOffset + 8] = sz;
+    rm[rmOffset + 9] = uz;
+    rm[rmOffset + 10] = -fz;
+    rm[rmOffset + 11] = 0.0f;
+    rm[rmOffset + 12] = 0.0f;
+    rm[rmOffset + 13] = 0.0f;
+    rm[rmOffset + 14] = 0.0f;
+    rm[rmOffset + 15] = 1.0f;
+
+    translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+  }
+
+  public static void perspectiveM(float[] m, int offset,
+      float fovy, float aspect, float zNear, float zFar) {
+    float f = 1.0f / (float) Math.tan(fovy * (Math.PI / 360.0));
+    float rangeReciprocal = 1.0f / (zNear - zFar);
+
+    m[offset] = f / aspect;
+    m[offset + 1] = 0.0f;
+    m[offset + 2] = 0.0f;
+    m[offset + 3] = 0.0f;
+
+    m[offset + 4] = 0.0f;
+    m[offset + 5] = f;
+    m[offset + 6] = 0.0f;
+    m[offset + 7] = 0.0f;
+
+    m[offset + 8] = 0.0f;
+    m[offset + 9] = 0.0f;
+    m[offset + 10] = (zFar + zNear) * rangeReciprocal;
+    m[offset + 11] = -1.0f;
+
+    m[offset + 12] = 0.0f;
+    m[offset + 13] = 0.0f;
+    m[offset + 14] = 2.0f * zFar * zNear * rangeReciprocal;
+    m[offset + 15] = 0.0f;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame matrix math of {@code TreasureHuntActivity}, through the {@link FrameMath} methods the
+ * activity calls, with one treasure as in the sample and with a dense field of them.
+ *
+ * <p>Each benchmark makes the calls of the corresponding activity method with the GL calls left
+ * out. Filling the treasure batches is part of drawing, so {@link RenderPathBenchmark} covers it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameMathBenchmark {
+
+  private static final float YAW_LIMIT = 0.12f;
+  private static final float PITCH_LIMIT = 0.12f;
+  private static final float TREASURE_FIELD_RADIUS = 50.0f;
+  private static final float FLOOR_DEPTH = 20f;
+
+  @Param({"1", "10000"})
+  public int treasureCount;
+
+  private TreasureField treasures;
+  private GazePicker gazePicker;
+  private int[] visible;
+  private final Frustum frustum = new Frustum();
+  private final FloorClipmap floorClipmap = new FloorClipmap(2.5f, 8, 4, 10.0f);
+
+  private final float[] treasureSpin = new float[16];
+  private final float[] modelFloor = new float[16];
+  private final float[] view = new float[16];
+  private final float[] viewProjection = new float[16];
+  private final float[] modelView = new float[16];
+  private final float[] modelViewProjection = new float[16];
+  private final float[] lightPosInEyeSpace = new float[4];
+  private final float[] position = new float[3];
+  private final float[] treasurePosition = new float[3];
+  private final FrameState frame = new FrameState();
+
+  private final float[] eyeView = new float[16];
+  private final float[] perspective = new float[16];
+
+  @Setup
+  public void setUp() {
+    treasures = new TreasureField(
+        treasureCount, TreasureField.boundingRadius(WorldLayoutData.CUBE_COORDS));
+    visible = new int[treasureCount];
+    gazePicker = new GazePicker(treasures, YAW_LIMIT, PITCH_LIMIT);
+    gazePicker.update(treasures.add(0.0f, 0.0f, -FrameMath.MAX_MODEL_DISTANCE / 2.0f));
+    while (treasures.getCount() < treasureCount) {
+      FrameMath.scatteredPosition(TREASURE_FIELD_RADIUS, treasurePosition);
+      moveTreasure(treasures.add(0, 0, 0));
+    }
+    Matrix.setIdentityM(treasureSpin, 0);
+    Matrix.setIdentityM(frame.headView, 0);
+    Matrix.rotateM(frame.headView, 0, 5f, 0f, 1f, 0f);
+    // Left eye of a typical viewer: half the interpupillary distance, 90 degree field of view.
+    Matrix.setIdentityM(eyeView, 0);
+    Matrix.translateM(eyeView, 0, 0.032f, 0f, 0f);
+    Matrix.perspectiveM(perspective, 0, 90f, 1f, FrameMath.Z_NEAR, FrameMath.Z_FAR);
+    position[0] = 0.1f;
+    position[1] = 0.05f;
+    position[2] = -0.2f;
+    newFrame();
+  }
+
+  /** onNewFrame: treasure spin, floor, camera, and the frame snapshot with its gaze test. */
+  @Benchmark
+  public int newFrame() {
+    FrameMath.spin(treasureSpin);
+    FrameMath.followUser(floorClipmap, FLOOR_DEPTH, position, modelFloor, frame.camera);
+    FrameMath.getLightPosInWorldSpace(frame.lightPosInWorldSpace);
+    System.arraycopy(treasureSpin, 0, frame.treasureSpin, 0, 16);
+    System.arraycopy(modelFloor, 0, frame.modelFloor, 0, 16);
+    frame.gazedTreasure = gazePicker.pick(frame.headView, frame.camera);
+    return frame.gazedTreasure;
+  }
+
+  /** onDrawEye for one eye: its transforms, culling the treasures, and the floor's transforms. */
+  @Benchmark
+  public float drawEye() {
+    FrameMath.eye(eyeView, perspective, frame.camera, frame.lightPosInWorldSpace,
+        view, viewProjection, 0, lightPosInEyeSpace, frustum);
+    int visibleCount = treasures.cull(frustum, null, visible);
+    FrameMath.modelViewProjection(
+        view, perspective, 0, frame.modelFloor, modelView, modelViewProjection);
+    return visibleCount + modelViewProjection[0];
+  }
+
+  /** The gaze query, on its own. */
+  @Benchmark
+  public int pickGazedTreasure() {
+    return gazePicker.pick(frame.headView, frame.camera);
+  }
+
+  /** hideObject on the first treasure, including moveTreasure. */
+  @Benchmark
+  public float hideObject() {
+    FrameMath.hiddenPosition(treasures.getX(0), treasures.getZ(0), treasurePosition);
+    moveTreasure(0);
+    return treasures.getX(0);
+  }
+
+  private void moveTreasure(int treasure) {
+    treasures.setPosition(treasure, treasurePosition[0], treasurePosition[1], treasurePosition[2]);
+    gazePicker.update(treasure);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing cost of {@link MeshPacker}, on the sample's cube and on a larger unindexed grid like the
+ * floor chunks a bigger world would load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MeshPackerBenchmark {
+
+  @Param({"0", "64"})
+  public int gridSize;
+
+  private float[] coords;
+  private float[] normals;
+  private float[] colors;
+  private float[] foundColors;
+
+  @Setup
+  public void setUp() {
+    if (gridSize == 0) {
+      coords = WorldLayoutData.CUBE_COORDS;
+      normals = WorldLayoutData.CUBE_NORMALS;
+      colors = WorldLayoutData.CUBE_COLORS;
+      foundColors = WorldLayoutData.CUBE_FOUND_COLORS;
+      return;
+    }
+    // Two triangles per cell, every vertex repeated as in WorldLayoutData.
+    int vertices = gridSize * gridSize * 6;
+    coords = new float[vertices * 3];
+    normals = new float[vertices * 3];
+    colors = new float[vertices * 4];
+    foundColors = colors;
+    int[] corners = {0, 0, 1, 0, 1, 1, 0, 0, 1, 1, 0, 1};
+    int v = 0;
+    for (int z = 0; z < gridSize; z++) {
+      for (int x = 0; x < gridSize; x++) {
+        for (int c = 0; c < 6; c++, v++) {
+          coords[v * 3] = x + corners[c * 2];
+          coords[v * 3 + 2] = z + corners[c * 2 + 1];
+          normals[v * 3 + 1] = 1f;
+          colors[v * 4 + 2] = 0.9f;
+          colors[v * 4 + 3] = 1f;
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public PackedMesh pack() {
+    MeshPacker packer = new MeshPacker();
+    packer.addAttribute(coords, 3, MeshPacker.FORMAT_FLOAT);
+    packer.addAttribute(normals, 3, MeshPacker.FORMAT_NORMALIZED_BYTE);
+    packer.addAttribute(colors, 4, MeshPacker.FORMAT_NORMALIZED_UNSIGNED_BYTE);
+    packer.addAttribute(foundColors, 4, MeshPacker.FORMAT_NORMALIZED_UNSIGNED_BYTE);
+    return packer.pack();
+  }
+}
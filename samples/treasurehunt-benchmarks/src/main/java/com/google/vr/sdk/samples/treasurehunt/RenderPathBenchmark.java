@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The GL calls of drawing a frame one eye at a time, through {@link TreasureRenderer} and
+ * {@link FloorRenderer} into a {@link RecordingGlDevice}, with one treasure as in the sample and
+ * with a dense field of them.
+ *
+ * <p>This is the half of {@code onDrawEye} that {@link FrameMathBenchmark} leaves out: culling the
+ * treasures, and the state the renderers set and the draws they make, with no GPU behind them.
+ * Setup prints the counters of one frame, so that a change in draw calls, state changes or
+ * uploads shows up next to the timings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RenderPathBenchmark {
+
+  private static final int EYES = 2;
+  private static final float TREASURE_FIELD_RADIUS = 50.0f;
+  private static final float FLOOR_DEPTH = 20f;
+
+  @Param({"1", "10000"})
+  public int treasureCount;
+
+  private final RecordingGlDevice gl = new RecordingGlDevice(false);
+  private final GlStateCache state = new GlStateCache(gl);
+  private final SceneGeometry geometry = new SceneGeometry(gl, state);
+  private final GridTexture gridTexture = new GridTexture(gl, state);
+  private final FloorClipmap floorClipmap = new FloorClipmap(2.5f, 8, 4, 10.0f);
+  private final FloorRenderer floorRenderer = new FloorRenderer(state, geometry, gridTexture);
+
+  private TreasureField treasures;
+  private TreasureRenderer treasureRenderer;
+  private TreasureRenderer.Program treasureProgram;
+  private FloorRenderer.Program floorProgram;
+
+  private final FrameState frame = new FrameState();
+  private final Frustum frustum = new Frustum();
+  private final float[][] eyeViews = new float[EYES][16];
+  private final float[] perspective = new float[16];
+  private final float[] position = new float[3];
+  private final float[] treasurePosition = new float[3];
+  private final float[] view = new float[16];
+  private final float[] viewProjection = new float[16];
+  private final float[] modelView = new float[16];
+  private final float[] modelViewProjection = new float[16];
+  private final float[] lightPosInEyeSpace = new float[4];
+
+  @Setup
+  public void setUp() {
+    geometry.create(SceneGeometry.packMeshes(floorClipmap));
+    gridTexture.create(GridTexture.bake(256, 0.1f));
+    treasureProgram = new TreasureRenderer.Program(gl, gl.glCreateProgram(), state, false);
+    floorProgram = new FloorRenderer.Program(gl, gl.glCreateProgram(), state, false);
+
+    treasures = new TreasureField(
+        treasureCount, TreasureField.boundingRadius(WorldLayoutData.CUBE_COORDS));
+    treasureRenderer = new TreasureRenderer(state, geometry, treasures);
+    treasures.add(0.0f, 0.0f, -FrameMath.MAX_MODEL_DISTANCE / 2.0f);
+    while (treasures.getCount() < treasureCount) {
+      FrameMath.scatteredPosition(TREASURE_FIELD_RADIUS, treasurePosition);
+      treasures.add(treasurePosition[0], treasurePosition[1], treasurePosition[2]);
+    }
+
+    // A typical viewer: half the interpupillary distance either side, 90 degree field of view.
+    for (int eye = 0; eye < EYES; eye++) {
+      Matrix.setIdentityM(eyeViews[eye], 0);
+      Matrix.translateM(eyeViews[eye], 0, eye == 0 ? 0.032f : -0.032f, 0f, 0f);
+    }
+    Matrix.perspectiveM(perspective, 0, 90f, 1f, FrameMath.Z_NEAR, FrameMath.Z_FAR);
+    Matrix.setIdentityM(frame.treasureSpin, 0);
+    FrameMath.followUser(floorClipmap, FLOOR_DEPTH, position, frame.modelFloor, frame.camera);
+    FrameMath.getLightPosInWorldSpace(frame.lightPosInWorldSpace);
+    frame.gazedTreasure = 0;
+
+    gl.reset();
+    drawFrame();
+    StringBuilder summary = new StringBuilder("One frame of ");
+    summary.append(treasureCount).append(" treasures: ");
+    gl.appendSummary(summary);
+    summary.append("; ");
+    treasureRenderer.appendSummary(summary);
+    System.out.println(summary);
+  }
+
+  /** Both eyes, each culling and drawing the treasures and then drawing the floor. */
+  @Benchmark
+  public long drawFrame() {
+    state.invalidate();
+    for (int eye = 0; eye < EYES; eye++) {
+      state.enable(GlDevice.GL_DEPTH_TEST);
+      gl.glClear(GlDevice.GL_COLOR_BUFFER_BIT | GlDevice.GL_DEPTH_BUFFER_BIT);
+      FrameMath.eye(eyeViews[eye], perspective, frame.camera, frame.lightPosInWorldSpace,
+          view, viewProjection, 0, lightPosInEyeSpace, frustum);
+
+      treasureRenderer.cull(frustum, null);
+      treasureRenderer.draw(treasureProgram, frame.treasureSpin, 1, view, viewProjection,
+          lightPosInEyeSpace, null, frame.gazedTreasure);
+
+      FrameMath.modelViewProjection(
+          view, perspective, 0, frame.modelFloor, modelView, modelViewProjection);
+      floorRenderer.draw(floorProgram, 1, modelView, modelViewProjection, lightPosInEyeSpace, null);
+      geometry.unbind();
+    }
+    return gl.getCallCount();
+  }
+}
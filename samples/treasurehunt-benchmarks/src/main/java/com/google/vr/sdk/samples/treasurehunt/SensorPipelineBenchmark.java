@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sensor path from {@code onSensorChanged} to the position used by {@code onNewFrame}.
+ *
+ * <p>Samples are a synthetic 200 Hz walk: bursts of acceleration separated by rest, with sensor
+ * noise, so the rest detector and drift bounds are exercised as on a headset.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SensorPipelineBenchmark {
+
+  private static final int SAMPLES = 4096;
+  private static final long SAMPLE_PERIOD_NANOS = 5000000L;
+
+  @Param({"TRAPEZOIDAL", "VERLET"})
+  public PositionIntegrator.Method method;
+
+  private final float[] samples = new float[SAMPLES * 3];
+  private final float[] sample = new float[3];
+  private final float[] position = new float[3];
+
+  private final PositionIntegrator integrator = new PositionIntegrator();
+  private final SensorProcessor processor = new SensorProcessor();
+  private final PosePredictor predictor = new PosePredictor();
+  private final SensorSampleRing ring = new SensorSampleRing(SAMPLES);
+
+  private long timestamp;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < SAMPLES; i++) {
+      boolean moving = (i / 200) % 2 == 0;
+      for (int axis = 0; axis < 3; axis++) {
+        float noise = (float) random.nextGaussian() * 0.05f;
+        samples[i * 3 + axis] = moving ? (float) Math.sin(i * 0.05 + axis) + noise : noise;
+      }
+    }
+    integrator.setMethod(method);
+    processor.getPositionIntegrator().setMethod(method);
+    SensorProcessor.offerHeadRotation(processor, 0, 0f, 0.3826834f, 0f, 0.9238795f);
+  }
+
+  /** One linear acceleration sample through the integrator alone. */
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public float integrate() {
+    for (int i = 0; i < SAMPLES; i++) {
+      timestamp += SAMPLE_PERIOD_NANOS;
+      integrator.integrate(timestamp, samples[i * 3], samples[i * 3 + 1], samples[i * 3 + 2]);
+    }
+    integrator.getPosition(position, 0);
+    return position[0];
+  }
+
+  /** One sample through the ring, fusion filter and integrator, then a prediction per frame. */
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public float offerDrainProcess() {
+    for (int i = 0; i < SAMPLES; i++) {
+      timestamp += SAMPLE_PERIOD_NANOS;
+      sample[0] = samples[i * 3];
+      sample[1] = samples[i * 3 + 1];
+      sample[2] = samples[i * 3 + 2];
+      ring.offer(SensorProcessor.TYPE_LINEAR_ACCELERATION, timestamp, sample);
+      // Roughly four samples per 60 Hz frame.
+      if ((i & 3) == 3) {
+        ring.drain(processor);
+        long displayNanos = predictor.onFrameStart(timestamp);
+        predictor.predict(processor.getPositionIntegrator(), displayNanos, position, 0);
+      }
+    }
+    return position[0];
+  }
+}
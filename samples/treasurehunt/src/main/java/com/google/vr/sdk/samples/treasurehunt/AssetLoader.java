@@ -0,0 +1,260 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads assets on a small pool of worker threads, in priority order, and hands the results to
+ * the GL thread.
+ *
+ * <p>Each asset is a {@link Callable} run on a worker. An asset may depend on others; it is only
+ * queued once they have all loaded, and fails if any of them fails. Queued assets run highest
+ * priority first, and in the order they were requested within a priority. The returned
+ * {@link Asset} is a future for the result.
+ *
+ * <p>Work that needs a GL context, such as uploading a loaded mesh, is registered with
+ * {@link #runOnGlThread}. It is queued when the asset has loaded, and run by the next
+ * {@link #runGlTasks} call, which the renderer makes while its context is current.
+ */
+final class AssetLoader {
+
+  private static final String TAG = "AssetLoader";
+
+  /** For assets the first frame can't be drawn without. */
+  static final int PRIORITY_FIRST_FRAME = 0;
+  /** For the rest of the scene. */
+  static final int PRIORITY_SCENE = 1;
+  /** For everything else. */
+  static final int PRIORITY_BACKGROUND = 2;
+
+  /** Work to do on the GL thread with a loaded asset. */
+  interface GlCallback<T> {
+    void onLoaded(T result);
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong sequence = new AtomicLong();
+  private final ConcurrentLinkedQueue<Runnable> glTasks = new ConcurrentLinkedQueue<Runnable>();
+
+  /** @param threads The number of worker threads. */
+  AssetLoader(int threads) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+          }
+        });
+  }
+
+  /**
+   * Starts loading an asset once its dependencies have loaded.
+   *
+   * @param name Names the asset in logs.
+   * @param priority One of the {@code PRIORITY_*} constants.
+   * @param loader Loads the asset on a worker thread. It may call {@link Asset#getResult} on its
+   *     dependencies, which won't block.
+   */
+  <T> Asset<T> load(String name, int priority, Callable<T> loader, Asset<?>... dependencies) {
+    final Asset<T> asset = new Asset<T>(this, name, priority, sequence.getAndIncrement(), loader);
+    asset.blockers.set(dependencies.length + 1);
+    for (final Asset<?> dependency : dependencies) {
+      dependency.whenDone(
+          new Runnable() {
+            @Override
+            public void run() {
+              asset.onDependencyDone(dependency);
+            }
+          });
+    }
+    // Released last, so the asset can't be queued while dependencies are still being added.
+    asset.unblock();
+    return asset;
+  }
+
+  /**
+   * Runs {@code callback} on the GL thread, from {@link #runGlTasks}, once {@code asset} has
+   * loaded. If it fails, the failure is logged instead.
+   */
+  <T> void runOnGlThread(final Asset<T> asset, final GlCallback<T> callback) {
+    asset.whenDone(
+        new Runnable() {
+          @Override
+          public void run() {
+            glTasks.add(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    T result;
+                    try {
+                      result = asset.getResult();
+                    } catch (RuntimeException e) {
+                      Log.e(TAG, "Unable to load " + asset.name, e);
+                      return;
+                    }
+                    callback.onLoaded(result);
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * Runs the GL callbacks of the assets that have loaded so far. Call on the GL thread, with the
+   * context current.
+   *
+   * @return The number of callbacks run.
+   */
+  int runGlTasks() {
+    int count = 0;
+    Runnable task;
+    while ((task = glTasks.poll()) != null) {
+      task.run();
+      count++;
+    }
+    return count;
+  }
+
+  /** Stops the workers. Assets that haven't loaded yet are cancelled. */
+  void shutdown() {
+    for (Runnable queued : executor.shutdownNow()) {
+      ((Asset<?>) queued).cancel(false);
+    }
+    glTasks.clear();
+  }
+
+  private void execute(Asset<?> asset) {
+    try {
+      executor.execute(asset);
+    } catch (RejectedExecutionException e) {
+      asset.fail(e);
+    }
+  }
+
+  /** A future for an asset being loaded. */
+  static final class Asset<T> extends FutureTask<T> implements Comparable<Asset<?>> {
+
+    private final AssetLoader loader;
+    private final String name;
+    private final int priority;
+    private final long sequence;
+    // Dependencies still loading, plus one while the asset is being set up.
+    private final AtomicInteger blockers = new AtomicInteger();
+
+    // Run once, when the asset is done. Guarded by itself.
+    private final List<Runnable> listeners = new ArrayList<Runnable>();
+    private boolean finished;
+
+    private Asset(
+        AssetLoader loader, String name, int priority, long sequence, Callable<T> callable) {
+      super(callable);
+      this.loader = loader;
+      this.name = name;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    /**
+     * Waits for the asset to load, and returns it.
+     *
+     * @throws RuntimeException if it couldn't be loaded, or the wait was interrupted.
+     */
+    T getResult() {
+      try {
+        return get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Unable to load " + name, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted loading " + name, e);
+      }
+    }
+
+    @Override
+    public int compareTo(Asset<?> other) {
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+
+    /** Runs {@code listener} when the asset is done, right away if it already is. */
+    private void whenDone(Runnable listener) {
+      synchronized (listeners) {
+        if (!finished) {
+          listeners.add(listener);
+          return;
+        }
+      }
+      listener.run();
+    }
+
+    private void onDependencyDone(Asset<?> dependency) {
+      try {
+        dependency.get();
+      } catch (ExecutionException e) {
+        fail(new ExecutionException("Dependency " + dependency.name + " failed", e.getCause()));
+        return;
+      } catch (Exception e) {
+        // Cancelled, or interrupted.
+        fail(new ExecutionException("Dependency " + dependency.name + " didn't load", e));
+        return;
+      }
+      unblock();
+    }
+
+    private void unblock() {
+      if (blockers.decrementAndGet() == 0 && !isDone()) {
+        loader.execute(this);
+      }
+    }
+
+    private void fail(Throwable cause) {
+      setException(cause);
+    }
+
+    @Override
+    protected void done() {
+      Runnable[] toRun;
+      synchronized (listeners) {
+        finished = true;
+        toRun = listeners.toArray(new Runnable[listeners.size()]);
+        listeners.clear();
+      }
+      for (Runnable listener : toRun) {
+        listener.run();
+      }
+    }
+  }
+}
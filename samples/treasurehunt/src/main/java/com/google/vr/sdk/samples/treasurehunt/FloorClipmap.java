@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Lays out an endless floor as square rings of tiles around the user, each ring's tiles twice the
+ * size of the last.
+ *
+ * <p>Level 0 is a square of {@code 2 * halfTiles} tiles a side, centered on the origin. Each
+ * further level is a ring of tiles twice as large, reaching twice as far, around the level inside
+ * it. Vertices are densest under the user, where per-vertex lighting and depth precision matter,
+ * and a few large tiles cover the distance. The whole floor is one mesh and one draw call.
+ *
+ * <p>The floor is flat and its look repeats every grid cell, so the tiles around the user are the
+ * same wherever the user is: rather than generating tiles as the user walks, the one mesh is
+ * moved with the user. It is moved in steps of {@link #snap}, a whole number of coarsest tiles
+ * and grid cells, so that vertices and grid lines don't swim as the user moves.
+ *
+ * <p>Where a ring meets the finer level inside it, every other finer vertex would sit in the
+ * middle of a coarse tile's edge; coarse tiles along the inner edge are split through that
+ * midpoint, so that the edges match and no pixels crack open between levels.
+ *
+ * <p>Each tile has its own grid coordinates, in cells, starting from its corner's position within
+ * its cell. They stay small wherever the tile is, so that they keep their precision when
+ * interpolated at medium precision.
+ *
+ * <p>This class has no Android dependencies.
+ */
+final class FloorClipmap {
+
+  // Tile corners, in the order that makes triangles face up (+y) like the original floor's. Edge
+  // k runs from corner k to corner k + 1.
+  private static final float[] CORNER_X = {1, 0, 0, 1};
+  private static final float[] CORNER_Z = {0, 0, 1, 1};
+  private static final int NO_SPLIT = -1;
+
+  private final float finestTile;
+  private final int halfTiles;
+  private final int levels;
+  private final float gridSpacing;
+
+  /**
+   * @param finestTile The size of the tiles of level 0, in world units.
+   * @param halfTiles The number of tiles from the center to the outer edge of each level. Even.
+   * @param levels The number of levels.
+   * @param gridSpacing The size of a grid cell, in world units. The coarsest tiles must be a
+   *     whole number of cells.
+   */
+  FloorClipmap(float finestTile, int halfTiles, int levels, float gridSpacing) {
+    if (halfTiles < 2 || halfTiles % 2 != 0 || levels < 1) {
+      throw new IllegalArgumentException(
+          "Invalid clipmap: " + halfTiles + " half tiles, " + levels + " levels");
+    }
+    this.finestTile = finestTile;
+    this.halfTiles = halfTiles;
+    this.levels = levels;
+    this.gridSpacing = gridSpacing;
+    float cells = getSnapStep() / gridSpacing;
+    if (cells != Math.round(cells)) {
+      throw new IllegalArgumentException(
+          "Coarsest tiles of " + getSnapStep() + " aren't whole grid cells of " + gridSpacing);
+    }
+  }
+
+  /** Returns how far the floor reaches from its center along the axes. */
+  float getReach() {
+    return tileSize(levels - 1) * halfTiles;
+  }
+
+  /**
+   * Returns where to center the floor along one axis for the user at {@code coordinate}: the
+   * nearest multiple of the coarsest tile size.
+   */
+  float snap(float coordinate) {
+    float step = getSnapStep();
+    return (float) Math.floor(coordinate / step + 0.5f) * step;
+  }
+
+  private float getSnapStep() {
+    return tileSize(levels - 1);
+  }
+
+  private float tileSize(int level) {
+    return finestTile * (1 << level);
+  }
+
+  /** Returns the unindexed triangles of the floor, as x, y, z per vertex in the y = 0 plane. */
+  float[] buildCoords() {
+    return build(true);
+  }
+
+  /** Returns the grid coordinates of the vertices of {@link #buildCoords}, as u, v per vertex. */
+  float[] buildGridCoords() {
+    return build(false);
+  }
+
+  private float[] build(boolean coords) {
+    int components = coords ? 3 : 2;
+    float[] out = new float[countVertices() * components];
+    int offset = 0;
+    for (int level = 0; level < levels; level++) {
+      float size = tileSize(level);
+      int inner = level == 0 ? 0 : halfTiles / 2;
+      for (int i = -halfTiles; i < halfTiles; i++) {
+        for (int j = -halfTiles; j < halfTiles; j++) {
+          if (i >= -inner && i < inner && j >= -inner && j < inner) {
+            // Covered by the finer levels.
+            continue;
+          }
+          offset = addTile(out, offset, coords, i * size, j * size, size,
+              splitEdge(i, j, inner));
+        }
+      }
+    }
+    return out;
+  }
+
+  /** Returns the edge of tile (i, j) that lies on the edge of the finer level, or NO_SPLIT. */
+  private static int splitEdge(int i, int j, int inner) {
+    if (inner == 0) {
+      return NO_SPLIT;
+    }
+    boolean alongX = j >= -inner && j < inner;
+    boolean alongZ = i >= -inner && i < inner;
+    if (alongX && i == inner) {
+      return 1;
+    } else if (alongX && i == -inner - 1) {
+      return 3;
+    } else if (alongZ && j == inner) {
+      return 0;
+    } else if (alongZ && j == -inner - 1) {
+      return 2;
+    }
+    return NO_SPLIT;
+  }
+
+  private int countVertices() {
+    int count = 0;
+    for (int level = 0; level < levels; level++) {
+      int side = 2 * halfTiles;
+      int inner = level == 0 ? 0 : halfTiles;
+      // Two triangles per tile, and one more for each of the tiles along the inner edge.
+      count += 6 * (side * side - inner * inner) + 3 * 4 * inner;
+    }
+    return count;
+  }
+
+  private int addTile(float[] out, int offset, boolean coords, float x, float z, float size,
+      int splitEdge) {
+    float[] cornerX = new float[4];
+    float[] cornerZ = new float[4];
+    for (int k = 0; k < 4; k++) {
+      cornerX[k] = x + CORNER_X[k] * size;
+      cornerZ[k] = z + CORNER_Z[k] * size;
+    }
+    // The tile's grid coordinates start from its corner's position within its cell.
+    float u = floorMod(x, gridSpacing) / gridSpacing;
+    float v = floorMod(z, gridSpacing) / gridSpacing;
+
+    if (splitEdge == NO_SPLIT) {
+      offset = addVertex(out, offset, coords, cornerX[0], cornerZ[0], x, z, u, v);
+      offset = addVertex(out, offset, coords, cornerX[1], cornerZ[1], x, z, u, v);
+      offset = addVertex(out, offset, coords, cornerX[2], cornerZ[2], x, z, u, v);
+      offset = addVertex(out, offset, coords, cornerX[0], cornerZ[0], x, z, u, v);
+      offset = addVertex(out, offset, coords, cornerX[2], cornerZ[2], x, z, u, v);
+      return addVertex(out, offset, coords, cornerX[3], cornerZ[3], x, z, u, v);
+    }
+
+    // A fan from the split edge's midpoint to the other corners, in order.
+    int start = splitEdge;
+    int end = (splitEdge + 1) % 4;
+    float midX = (cornerX[start] + cornerX[end]) / 2;
+    float midZ = (cornerZ[start] + cornerZ[end]) / 2;
+    for (int k = 1; k <= 3; k++) {
+      int a = (splitEdge + k) % 4;
+      int b = (splitEdge + k + 1) % 4;
+      offset = addVertex(out, offset, coords, midX, midZ, x, z, u, v);
+      offset = addVertex(out, offset, coords, cornerX[a], cornerZ[a], x, z, u, v);
+      offset = addVertex(out, offset, coords, cornerX[b], cornerZ[b], x, z, u, v);
+    }
+    return offset;
+  }
+
+  private int addVertex(float[] out, int offset, boolean coords, float vertexX, float vertexZ,
+      float tileX, float tileZ, float u, float v) {
+    if (coords) {
+      out[offset] = vertexX;
+      out[offset + 1] = 0;
+      out[offset + 2] = vertexZ;
+      return offset + 3;
+    }
+    out[offset] = u + (vertexX - tileX) / gridSpacing;
+    out[offset + 1] = v + (vertexZ - tileZ) / gridSpacing;
+    return offset + 2;
+  }
+
+  private static float floorMod(float value, float divisor) {
+    return value - (float) Math.floor(value / divisor) * divisor;
+  }
+}
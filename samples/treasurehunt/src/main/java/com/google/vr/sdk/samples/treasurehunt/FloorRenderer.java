@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Draws the floor mesh of a {@link SceneGeometry} with the grid texture, for one eye or, with a
+ * single-pass program, for both eyes in one instanced draw.
+ *
+ * <p>Must only be used on the GL thread.
+ */
+final class FloorRenderer {
+
+  /** The uniforms of the floor vertex shader that differ between the eyes. */
+  static final String[] PER_EYE_UNIFORMS = {"u_MVP", "u_MVMatrix", "u_LightPos"};
+
+  private final GlStateCache state;
+  private final SceneGeometry geometry;
+  private final GridTexture gridTexture;
+
+  FloorRenderer(GlStateCache state, SceneGeometry geometry, GridTexture gridTexture) {
+    this.state = state;
+    this.geometry = geometry;
+    this.gridTexture = gridTexture;
+  }
+
+  /**
+   * Draws the floor.
+   *
+   * <p>This doesn't set the light position for the treasures, so if the floor is drawn first the
+   * treasures' lighting might look strange.
+   *
+   * @param eyes The number of eyes drawn at once: 1, or {@link SinglePassStereo#EYE_COUNT} with a
+   *     single-pass program. The per-eye arrays hold this many values, eye after eye.
+   * @param lightPositions The light position in each eye's space, three values per eye.
+   * @param eyeViewports For a single-pass program, the eyes' viewports from
+   *     {@link SinglePassStereo#computeViewports}; otherwise ignored.
+   */
+  void draw(Program program, int eyes, float[] modelViews, float[] modelViewProjections,
+      float[] lightPositions, float[] eyeViewports) {
+    state.useProgram(program.program);
+    state.uniform3fv(program.lightPos, eyes, lightPositions, 0);
+    state.uniformMatrix4fv(program.modelView, eyes, modelViews, 0);
+    state.uniformMatrix4fv(program.modelViewProjection, eyes, modelViewProjections, 0);
+    if (eyes > 1) {
+      state.uniform4fv(program.eyeViewport, eyes, eyeViewports, 0);
+    }
+
+    int mesh = SceneGeometry.MESH_FLOOR;
+    geometry.bind(mesh);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_POSITION, program.position);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_NORMAL, program.normal);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_COLOR, program.color);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_GRID_COORD, program.gridCoord);
+    state.enableVertexAttribArray(program.position);
+    state.enableVertexAttribArray(program.normal);
+    state.enableVertexAttribArray(program.color);
+    state.enableVertexAttribArray(program.gridCoord);
+    gridTexture.bind();
+
+    if (eyes > 1) {
+      geometry.drawInstanced(mesh, eyes);
+    } else {
+      geometry.draw(mesh);
+    }
+    // The treasure programs don't read it.
+    state.disableVertexAttribArray(program.gridCoord);
+  }
+
+  /** Attribute locations and {@link GlStateCache} uniform slots of a floor program. */
+  static final class Program {
+    final int program;
+    final int position;
+    final int normal;
+    final int color;
+    final int gridCoord;
+    final int modelView;
+    final int modelViewProjection;
+    final int lightPos;
+    // Only set for single-pass programs.
+    final int eyeViewport;
+
+    /**
+     * @param singlePass Whether the program was built with
+     *     {@link SinglePassStereo#translateVertexShader} from {@link #PER_EYE_UNIFORMS}.
+     */
+    Program(GlDevice gl, int program, GlStateCache state, boolean singlePass) {
+      this.program = program;
+      position = gl.glGetAttribLocation(program, "a_Position");
+      normal = gl.glGetAttribLocation(program, "a_Normal");
+      color = gl.glGetAttribLocation(program, "a_Color");
+      gridCoord = gl.glGetAttribLocation(program, "a_GridCoord");
+      int eyes = singlePass ? SinglePassStereo.EYE_COUNT : 1;
+      modelView = state.registerUniform(program, eyeUniform("u_MVMatrix", singlePass), 16 * eyes);
+      modelViewProjection =
+          state.registerUniform(program, eyeUniform("u_MVP", singlePass), 16 * eyes);
+      lightPos = state.registerUniform(program, eyeUniform("u_LightPos", singlePass), 3 * eyes);
+      eyeViewport = singlePass
+          ? state.registerUniform(program, SinglePassStereo.EYE_VIEWPORT_UNIFORM, 4 * eyes)
+          : -1;
+    }
+
+    private static String eyeUniform(String name, boolean singlePass) {
+      return singlePass ? SinglePassStereo.perEye(name) : name;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+/**
+ * The scene math {@code TreasureHuntActivity} does every frame and eye: the treasures' spin, the
+ * floor and camera following the user, each eye's transforms, and where treasures are placed.
+ *
+ * <p>The activity does this math only through these methods, so that {@code FrameMathBenchmark}
+ * measures the code that runs rather than a copy of it. They allocate nothing and use nothing of
+ * Android but {@link Matrix}, which has a stand-in for desktop JVMs.
+ */
+final class FrameMath {
+
+  static final float Z_NEAR = 0.1f;
+  static final float Z_FAR = 100.0f;
+
+  /** The closest a treasure is placed to the user. */
+  static final float MIN_MODEL_DISTANCE = 3.0f;
+  /** The furthest a found treasure is hidden from the user. */
+  static final float MAX_MODEL_DISTANCE = 7.0f;
+
+  private static final float CAMERA_Z = 0.01f;
+  // Degrees the treasures turn each frame.
+  private static final float TIME_DELTA = 0.3f;
+
+  // We keep the light always position just above the user.
+  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
+
+  private FrameMath() {}
+
+  /** Turns {@code spin}, the rotation all treasures share, by one frame's worth. */
+  static void spin(float[] spin) {
+    Matrix.rotateM(spin, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+  }
+
+  /**
+   * Moves the floor and camera to the user's position.
+   *
+   * <p>The floor appears {@code floorDepth} below the user and moves with them, in the steps of
+   * {@code floorClipmap} that keep its grid in place.
+   *
+   * @param position The user's position (x, y, z).
+   * @param modelFloor Receives the floor's model matrix.
+   * @param camera Receives the world to camera transform.
+   */
+  static void followUser(FloorClipmap floorClipmap, float floorDepth, float[] position,
+      float[] modelFloor, float[] camera) {
+    Matrix.setIdentityM(modelFloor, 0);
+    Matrix.translateM(modelFloor, 0,
+        floorClipmap.snap(position[0]), -floorDepth, floorClipmap.snap(position[2]));
+
+    Matrix.setLookAtM(camera, 0,
+        position[0], position[1], position[2] + CAMERA_Z, // eye
+        position[0], position[1], position[2], // center
+        0.0f, 1.0f, 0.0f); // up
+  }
+
+  /** Copies the light position in world space, as a homogeneous point, into {@code out}. */
+  static void getLightPosInWorldSpace(float[] out) {
+    System.arraycopy(LIGHT_POS_IN_WORLD_SPACE, 0, out, 0, 4);
+  }
+
+  /**
+   * Computes an eye's view and view-projection, moves the light into eye space, and sets the
+   * eye's frustum.
+   *
+   * @param eyeView The eye's transform, applied after {@code camera}.
+   * @param perspective The eye's projection.
+   * @param views Receives the view matrix at {@code offset}.
+   * @param viewProjections Receives the view-projection matrix at {@code offset}.
+   * @param lightPosInEyeSpace Receives the light position in eye space, as a homogeneous point.
+   * @param frustum Set to the eye's view frustum in world space.
+   */
+  static void eye(float[] eyeView, float[] perspective, float[] camera,
+      float[] lightPosInWorldSpace, float[] views, float[] viewProjections, int offset,
+      float[] lightPosInEyeSpace, Frustum frustum) {
+    Matrix.multiplyMM(views, offset, eyeView, 0, camera, 0);
+    Matrix.multiplyMV(lightPosInEyeSpace, 0, views, offset, lightPosInWorldSpace, 0);
+    Matrix.multiplyMM(viewProjections, offset, perspective, 0, views, offset);
+    frustum.set(viewProjections, offset);
+  }
+
+  /**
+   * Computes the model-view and model-view-projection matrices of a model for an eye. Every array
+   * but {@code model} is read or written at {@code offset}.
+   */
+  static void modelViewProjection(float[] views, float[] perspectives, int offset,
+      float[] model, float[] modelViews, float[] modelViewProjections) {
+    Matrix.multiplyMM(modelViews, offset, views, offset, model, 0);
+    Matrix.multiplyMM(
+        modelViewProjections, offset, perspectives, offset, modelViews, offset);
+  }
+
+  /**
+   * Picks a random position for a new treasure, between {@link #MIN_MODEL_DISTANCE} and
+   * {@code maxDistance} from the user in any direction.
+   *
+   * @param out Receives the position (x, y, z).
+   */
+  static void scatteredPosition(float maxDistance, float[] out) {
+    float distance =
+        (float) Math.random() * (maxDistance - MIN_MODEL_DISTANCE) + MIN_MODEL_DISTANCE;
+    place((float) (Math.random() * 2 * Math.PI), distance, out);
+  }
+
+  /**
+   * Picks a random position for a found treasure, out of sight of the user looking at it.
+   *
+   * <p>It is rotated around the Y-axis between 90 and 270 degrees away from where it was, and
+   * placed between {@link #MIN_MODEL_DISTANCE} and {@link #MAX_MODEL_DISTANCE} from the user.
+   *
+   * @param x The treasure's current x.
+   * @param z The treasure's current z.
+   * @param out Receives the position (x, y, z).
+   */
+  static void hiddenPosition(float x, float z, float[] out) {
+    float angleXZ = (float) (Math.atan2(x, z) + Math.toRadians(Math.random() * 180 + 90));
+    float distance =
+        (float) Math.random() * (MAX_MODEL_DISTANCE - MIN_MODEL_DISTANCE) + MIN_MODEL_DISTANCE;
+    place(angleXZ, distance, out);
+  }
+
+  /**
+   * Places a point {@code distance} from the user in the XZ plane, in the direction
+   * {@code angleXZ} radians around the Y-axis, and up or down by a random angle.
+   */
+  private static void place(float angleXZ, float distance, float[] out) {
+    float angleY = (float) Math.random() * 80 - 40; // Angle in Y plane, between -40 and 40.
+    angleY = (float) Math.toRadians(angleY);
+    out[0] = (float) Math.sin(angleXZ) * distance;
+    out[1] = (float) Math.tan(angleY) * distance;
+    out[2] = (float) Math.cos(angleXZ) * distance;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Watches the interval between frame starts for the judder a user sees in the headset, and counts
+ * it.
+ *
+ * <p>A frame that starts more than half a display period late missed a vsync, and each vsync it
+ * missed is a dropped frame. Missing vsyncs at a steady rate is smooth, if slow; what a user sees
+ * as judder is a frame that takes longer than the one before it. Such a frame is counted as a
+ * jank. Dropped frames and janks are counted over the session and over a rolling window of recent
+ * frames, and every interval goes into a {@link LatencyHistogram} for its percentiles.
+ *
+ * <p>Several janks close together are a burst, which is worth looking at frame by frame: the
+ * watchdog then captures the phase times of the last frames from {@link FrameTimings}, for
+ * {@link #writeCapture} to write out. Captures are rate-limited, and a new one is only taken once
+ * the last has been written.
+ *
+ * <p>{@link #onFrameStart} allocates nothing and must only be called on the GL thread. The
+ * counters and the histogram can be read from any thread; reads may be slightly out of date.
+ */
+final class FramePacingWatchdog {
+
+  // A frame this many display periods long or more missed a vsync.
+  private static final float MISSED_FRAME_PERIODS = 1.5f;
+  // A jank is a frame at least this many periods longer than the one before it.
+  private static final float JANK_PERIODS = 0.5f;
+  // Longer intervals are pauses, not judder, and are ignored.
+  private static final long MAX_FRAME_INTERVAL_NANOS = 1000000000L;
+  // The number of frames the rolling counters cover.
+  private static final int WINDOW_FRAMES = 600;
+  // This many janks within this many frames are a burst.
+  private static final int BURST_JANKS = 3;
+  private static final int BURST_FRAMES = 60;
+  // Frames after a capture before the next may be taken.
+  private static final int CAPTURE_COOLDOWN_FRAMES = 600;
+
+  private final long periodNanos;
+  private final FrameTimings timings;
+  private final LatencyHistogram intervals = new LatencyHistogram("frame interval");
+
+  private long lastStartNanos;
+  private long lastIntervalNanos;
+  private long frame;
+
+  // The dropped frames of each frame in the window, and whether it was a jank.
+  private final byte[] windowDropped = new byte[WINDOW_FRAMES];
+  private final boolean[] windowJanks = new boolean[WINDOW_FRAMES];
+  private volatile int recentDropped;
+  private volatile int recentJanks;
+  private volatile long droppedFrames;
+  private volatile long janks;
+  private volatile int bursts;
+
+  // The frame numbers of the last BURST_JANKS janks, as a ring.
+  private final long[] jankFrames = new long[BURST_JANKS];
+  private int jankIndex;
+
+  // Written on the GL thread while no capture is pending, read by writeCapture while one is.
+  private final long[] capture;
+  private int captureRows;
+  private volatile boolean capturePending;
+  private long lastCaptureFrame = -CAPTURE_COOLDOWN_FRAMES;
+  private volatile int captures;
+
+  /**
+   * @param periodNanos The display's refresh period.
+   * @param timings The phase times to capture on a burst.
+   * @param captureFrames The number of frames {@code timings} keeps, and a capture holds.
+   */
+  FramePacingWatchdog(long periodNanos, FrameTimings timings, int captureFrames) {
+    this.periodNanos = periodNanos;
+    this.timings = timings;
+    capture = new long[captureFrames * FrameTimings.FRAME_FIELDS];
+    for (int i = 0; i < BURST_JANKS; i++) {
+      jankFrames[i] = -BURST_FRAMES;
+    }
+  }
+
+  /**
+   * Records the start of a frame.
+   *
+   * @return Whether a burst of janks just ended in a capture, which {@link #writeCapture} should
+   *     now write off the GL thread.
+   */
+  boolean onFrameStart(long nowNanos) {
+    long intervalNanos = nowNanos - lastStartNanos;
+    boolean first = lastStartNanos == 0;
+    lastStartNanos = nowNanos;
+    if (first || intervalNanos <= 0 || intervalNanos > MAX_FRAME_INTERVAL_NANOS) {
+      lastIntervalNanos = 0;
+      return false;
+    }
+    frame++;
+    intervals.record(intervalNanos);
+
+    int dropped = intervalNanos >= MISSED_FRAME_PERIODS * periodNanos
+        ? (int) Math.min(Byte.MAX_VALUE, (intervalNanos + periodNanos / 2) / periodNanos - 1) : 0;
+    boolean jank = dropped > 0 && lastIntervalNanos != 0
+        && intervalNanos - lastIntervalNanos >= JANK_PERIODS * periodNanos;
+    lastIntervalNanos = intervalNanos;
+
+    int slot = (int) (frame % WINDOW_FRAMES);
+    recentDropped += dropped - windowDropped[slot];
+    recentJanks += (jank ? 1 : 0) - (windowJanks[slot] ? 1 : 0);
+    windowDropped[slot] = (byte) dropped;
+    windowJanks[slot] = jank;
+    droppedFrames += dropped;
+    if (!jank) {
+      return false;
+    }
+    janks++;
+
+    // The oldest of the last BURST_JANKS janks, which this one replaces.
+    long oldest = jankFrames[jankIndex];
+    jankFrames[jankIndex] = frame;
+    jankIndex = (jankIndex + 1) % BURST_JANKS;
+    if (frame - oldest >= BURST_FRAMES) {
+      return false;
+    }
+    bursts++;
+    // Start counting afresh, so that one long burst doesn't count once per jank.
+    for (int i = 0; i < BURST_JANKS; i++) {
+      jankFrames[i] = -BURST_FRAMES;
+    }
+    if (capturePending || frame - lastCaptureFrame < CAPTURE_COOLDOWN_FRAMES) {
+      return false;
+    }
+    captureRows = timings.copyRecentFrames(capture);
+    lastCaptureFrame = frame;
+    capturePending = true;
+    return true;
+  }
+
+  /**
+   * Writes the capture taken by {@link #onFrameStart}, in the format of
+   * {@link FrameTimings#writeFrames}. May be called from any thread, once per capture.
+   */
+  void writeCapture(File file) throws IOException {
+    if (!capturePending) {
+      return;
+    }
+    try {
+      FrameTimings.writeFrames(file, capture, captureRows);
+      captures++;
+    } finally {
+      capturePending = false;
+    }
+  }
+
+  /** Drops the capture taken by {@link #onFrameStart} without writing it. */
+  void discardCapture() {
+    capturePending = false;
+  }
+
+  /** Appends the session and rolling counters, and the interval percentiles, to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("pacing: dropped=").append(droppedFrames)
+        .append(" janks=").append(janks)
+        .append(" bursts=").append(bursts)
+        .append(" captures=").append(captures)
+        .append(" last ").append(WINDOW_FRAMES).append(" frames: dropped=").append(recentDropped)
+        .append(" janks=").append(recentJanks)
+        .append("; ");
+    intervals.appendSummary(out);
+  }
+}
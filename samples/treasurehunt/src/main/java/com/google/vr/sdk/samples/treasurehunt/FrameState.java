@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Everything the eyes of one frame are drawn from, computed once per frame in
+ * {@code onNewFrame}.
+ *
+ * <p>Drawing only reads a snapshot, so per-frame work such as the gaze test isn't repeated for
+ * each eye, and nothing the snapshot holds can change between the two eyes. The renderer keeps two
+ * preallocated snapshots and fills them alternately, so the one last published stays intact while
+ * the next is filled.
+ *
+ * <p>Snapshots are written on the GL thread before they are published, and not again until the
+ * frame after next. Other threads may read {@link #gazedTreasure} from the published snapshot;
+ * everything else is for the GL thread. Treasure positions aren't copied: they live in the
+ * {@link TreasureField}, which only changes on the GL thread between frames.
+ */
+final class FrameState {
+
+  /** Head rotation, from the start of the frame. */
+  final float[] headView = new float[16];
+  /** World to camera transform, including the tracked position. */
+  final float[] camera = new float[16];
+  /** Light position in world space, as a homogeneous point. */
+  final float[] lightPosInWorldSpace = new float[4];
+  /** The rotation all treasures share. */
+  final float[] treasureSpin = new float[16];
+  final float[] modelFloor = new float[16];
+  /** The index of the treasure the user is looking at, or -1. */
+  int gazedTreasure = -1;
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Times the phases of each frame on the GL thread, into one {@link LatencyHistogram} per phase.
+ *
+ * <p>The times are of the GL thread, not the GPU: a draw phase's time is what it took to issue
+ * its GL calls. Phases may nest, e.g. the floor inside an eye, and a phase that runs more than
+ * once a frame records each run. Timing allocates nothing and takes no locks, so it stays on in
+ * release builds.
+ *
+ * <p>The histograms can be read from any thread, either as summaries or as a snapshot written by
+ * {@link #writeSnapshot}. A snapshot is big-endian, as written by {@link DataOutputStream}:
+ * <pre>
+ *   header: int magic, int version, int phaseCount
+ *   phase:  UTF name, long count, long meanNanos, long maxNanos, int bucketCount,
+ *           bucketCount * (short bucket, long count)
+ * </pre>
+ * Only non-empty buckets are written; {@link LatencyHistogram#bucketLowerBoundNanos} gives the
+ * durations each one covers.
+ *
+ * <p>The total time of each phase is also kept for the last few frames, one row per frame, so that
+ * the frames around a hitch can be looked at one by one. {@link #copyRecentFrames} copies them
+ * out, and {@link #writeFrames} writes a copy in the same style as a snapshot:
+ * <pre>
+ *   header: int magic, int version, int phaseCount, phaseCount * UTF name, int frameCount
+ *   frame:  long startNanos, phaseCount * long nanos
+ * </pre>
+ */
+final class FrameTimings {
+
+  static final int MAGIC = 0x57465054; // "WFPT"
+  static final int FRAMES_MAGIC = 0x57465046; // "WFPF"
+  static final int VERSION = 1;
+
+  static final int NEW_FRAME = 0;
+  static final int DRAW_EYE = 1;
+  static final int DRAW_BOTH_EYES = 2;
+  static final int DRAW_TREASURES = 3;
+  static final int DRAW_FLOOR = 4;
+  static final int AUDIO_UPDATE = 5;
+  static final int FINISH_FRAME = 6;
+
+  private static final String[] PHASE_NAMES = {
+      "new frame",
+      "draw eye",
+      "draw both eyes",
+      "draw treasures",
+      "draw floor",
+      "audio update",
+      "finish frame",
+  };
+
+  /** The longs in each row of {@link #copyRecentFrames}: the start time, then each phase. */
+  static final int FRAME_FIELDS = 1 + PHASE_NAMES.length;
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[PHASE_NAMES.length];
+  // When each phase that is running started. Only touched on the GL thread.
+  private final long[] startNanos = new long[PHASE_NAMES.length];
+  // A ring of rows for the last recentFrames frames; the newest is the current frame's.
+  private final int recentFrames;
+  private final long[] frames;
+  private int frameCount;
+
+  /** @param recentFrames The number of frames to keep the phase times of. */
+  FrameTimings(int recentFrames) {
+    this.recentFrames = recentFrames;
+    frames = new long[recentFrames * FRAME_FIELDS];
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram(PHASE_NAMES[i]);
+    }
+  }
+
+  /**
+   * Starts a new row of phase times. Call on the GL thread before any phase of the frame starts.
+   */
+  void startFrame(long nowNanos) {
+    int row = (frameCount++ % recentFrames) * FRAME_FIELDS;
+    frames[row] = nowNanos;
+    for (int i = 1; i < FRAME_FIELDS; i++) {
+      frames[row + i] = 0;
+    }
+  }
+
+  /** Starts timing a phase. Must only be called on the GL thread. */
+  void start(int phase) {
+    startNanos[phase] = SystemClock.elapsedRealtimeNanos();
+  }
+
+  /** Records the time since {@link #start} for a phase. Must only be called on the GL thread. */
+  void stop(int phase) {
+    long nanos = SystemClock.elapsedRealtimeNanos() - startNanos[phase];
+    histograms[phase].record(nanos);
+    if (frameCount > 0) {
+      frames[((frameCount - 1) % recentFrames) * FRAME_FIELDS + 1 + phase] += nanos;
+    }
+  }
+
+  /**
+   * Copies the rows of the last frames, oldest first, into {@code out}, which must hold
+   * {@code recentFrames * FRAME_FIELDS} values. The current frame is included as far as it has
+   * got. Must only be called on the GL thread.
+   *
+   * @return The number of rows copied.
+   */
+  int copyRecentFrames(long[] out) {
+    int count = Math.min(frameCount, recentFrames);
+    int first = frameCount - count;
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(frames, ((first + i) % recentFrames) * FRAME_FIELDS,
+          out, i * FRAME_FIELDS, FRAME_FIELDS);
+    }
+    return count;
+  }
+
+  /** Writes {@code count} rows from {@link #copyRecentFrames} to {@code file}, replacing it. */
+  static void writeFrames(File file, long[] rows, int count) throws IOException {
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(FRAMES_MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(PHASE_NAMES.length);
+      for (String name : PHASE_NAMES) {
+        out.writeUTF(name);
+      }
+      out.writeInt(count);
+      for (int i = 0; i < count * FRAME_FIELDS; i++) {
+        out.writeLong(rows[i]);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Appends a summary of each phase that has run, in microseconds, to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    boolean first = true;
+    for (LatencyHistogram histogram : histograms) {
+      if (histogram.getCount() == 0) {
+        continue;
+      }
+      if (!first) {
+        out.append("; ");
+      }
+      histogram.appendSummary(out);
+      first = false;
+    }
+  }
+
+  /** Writes the histograms of all phases to {@code file}, replacing it. */
+  void writeSnapshot(File file) throws IOException {
+    long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(histograms.length);
+      for (LatencyHistogram histogram : histograms) {
+        histogram.copyCounts(counts);
+        out.writeUTF(histogram.getName());
+        out.writeLong(histogram.getCount());
+        out.writeLong(histogram.getMeanNanos());
+        out.writeLong(histogram.getMaxNanos());
+        int buckets = 0;
+        for (long count : counts) {
+          if (count != 0) {
+            buckets++;
+          }
+        }
+        out.writeInt(buckets);
+        for (int i = 0; i < counts.length; i++) {
+          if (counts[i] != 0) {
+            out.writeShort(i);
+            out.writeLong(counts[i]);
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * The six planes of a view frustum, for testing bounding spheres against it.
+ *
+ * <p>The planes are read straight out of a view-projection matrix, so they are in whatever space
+ * the matrix maps from; for {@code perspective * view} that is world space. Each plane is stored as
+ * a normalized {@code (a, b, c, d)}, with the inside of the frustum where
+ * {@code a*x + b*y + c*z + d >= 0}.
+ *
+ * <p>This class has no Android dependencies.
+ */
+final class Frustum {
+
+  private static final int PLANE_COUNT = 6;
+
+  private final float[] planes = new float[PLANE_COUNT * 4];
+
+  /**
+   * Sets the planes from a column-major view-projection matrix, as used by
+   * {@code android.opengl.Matrix}.
+   */
+  void set(float[] viewProjection, int offset) {
+    // Row i of the matrix is (m[i], m[4 + i], m[8 + i], m[12 + i]). Each plane is the last row
+    // plus or minus one of the others: left, right, bottom, top, near, far.
+    for (int row = 0; row < 3; row++) {
+      setPlane(2 * row, viewProjection, offset, row, 1f);
+      setPlane(2 * row + 1, viewProjection, offset, row, -1f);
+    }
+  }
+
+  private void setPlane(int plane, float[] m, int offset, int row, float sign) {
+    float a = m[offset + 3] + sign * m[offset + row];
+    float b = m[offset + 7] + sign * m[offset + 4 + row];
+    float c = m[offset + 11] + sign * m[offset + 8 + row];
+    float d = m[offset + 15] + sign * m[offset + 12 + row];
+    float scale = 1f / (float) Math.sqrt(a * a + b * b + c * c);
+    int base = plane * 4;
+    planes[base] = a * scale;
+    planes[base + 1] = b * scale;
+    planes[base + 2] = c * scale;
+    planes[base + 3] = d * scale;
+  }
+
+  /** Returns whether any part of a sphere may be inside the frustum. */
+  boolean intersectsSphere(float x, float y, float z, float radius) {
+    for (int base = 0; base < PLANE_COUNT * 4; base += 4) {
+      if (planes[base] * x + planes[base + 1] * y + planes[base + 2] * z + planes[base + 3]
+          < -radius) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Arrays;
+
+/**
+ * Finds the treasure the user is looking at without testing every treasure.
+ *
+ * <p>A treasure is gazed at when its position, seen from the camera and head, is within a pitch and
+ * a yaw limit of straight ahead. The gaze always starts at the camera, so rather than a grid over
+ * space this keeps a uniform grid over directions from a binning origin near the camera: every
+ * treasure is linked into the bin of its yaw and pitch seen from there. A query works out the
+ * spherical cap of directions that can pass the gaze test, visits only the bins overlapping it,
+ * and runs the exact test on the treasures found there. With bins of about 0.1 radians and the
+ * sample's limits, that is a handful of bins whatever the number of treasures.
+ *
+ * <p>Directions from the origin are only approximately those from the camera once the user has
+ * moved. A treasure at least {@link #NEAR_RADIUS} from the origin is seen from a camera {@code d}
+ * away at most {@code asin(d / NEAR_RADIUS)} off its binned direction, so the cap is widened by
+ * that much; nearer treasures are kept in a list that every query tests. When the camera moves
+ * more than {@link #REBIN_DISTANCE} from the origin, the origin moves to the camera and every
+ * treasure is binned again.
+ *
+ * <p>The index is otherwise kept up to date incrementally: {@link #update} relinks one treasure in
+ * constant time, and must be called whenever a treasure is added or moved. Queries allocate
+ * nothing.
+ *
+ * <p>Not thread-safe; used on the thread that owns the {@link TreasureField}. This class uses
+ * nothing of Android but {@link Matrix}, which has a stand-in for desktop JVMs.
+ */
+final class GazePicker {
+
+  private static final int YAW_BINS = 64;
+  private static final int PITCH_BINS = 32;
+  private static final float YAW_BIN_SIZE = (float) (2 * Math.PI / YAW_BINS);
+  private static final float PITCH_BIN_SIZE = (float) (Math.PI / PITCH_BINS);
+  private static final float HALF_PI = (float) (Math.PI / 2);
+
+  // Widens the cap of directions visited beyond the gaze limits, for head transforms that move
+  // the eye slightly off the camera, such as a neck model.
+  private static final float CAP_MARGIN = 0.05f;
+
+  /** Treasures nearer than this to the binning origin are tested by every query. */
+  static final float NEAR_RADIUS = 3.0f;
+  // The most the binned directions may be off from those seen from the camera.
+  private static final float MAX_DRIFT = 0.15f;
+  /** How far the camera may move from the binning origin before every treasure is re-binned. */
+  static final float REBIN_DISTANCE = (float) (NEAR_RADIUS * Math.sin(MAX_DRIFT));
+
+  private static final int NONE = -1;
+  // The bin of the treasures nearer than NEAR_RADIUS to the origin, after the direction bins.
+  private static final int NEAR_BIN = YAW_BINS * PITCH_BINS;
+
+  private final TreasureField field;
+  private final float yawLimit;
+  private final float pitchLimit;
+  // The angle from straight ahead of the furthest direction that can pass the gaze test.
+  private final float capRadius;
+
+  // Treasures are kept in doubly linked lists, one per bin.
+  private final int[] binHeads = new int[NEAR_BIN + 1];
+  private final int[] next;
+  private final int[] previous;
+  private final int[] bins;
+
+  // Where directions are binned from.
+  private float originX;
+  private float originY;
+  private float originZ;
+  // World to head transform of the last query.
+  private final float[] view = new float[16];
+
+  // The running result of a query.
+  private int gazed;
+  private float nearest;
+  private int candidates;
+
+  // The number of treasures given the exact test by the last query.
+  private int lastCandidates;
+  private int rebins;
+
+  /**
+   * @param yawLimit The largest yaw from straight ahead, in radians, of a gazed treasure.
+   * @param pitchLimit The largest pitch from straight ahead, in radians, of a gazed treasure.
+   */
+  GazePicker(TreasureField field, float yawLimit, float pitchLimit) {
+    this.field = field;
+    this.yawLimit = yawLimit;
+    this.pitchLimit = pitchLimit;
+    double tanYaw = Math.tan(yawLimit);
+    double tanPitch = Math.tan(pitchLimit);
+    capRadius = (float) Math.atan(Math.sqrt(tanYaw * tanYaw + tanPitch * tanPitch)) + CAP_MARGIN;
+    int capacity = field.getCapacity();
+    next = new int[capacity];
+    previous = new int[capacity];
+    bins = new int[capacity];
+    Arrays.fill(binHeads, NONE);
+    Arrays.fill(bins, NONE);
+  }
+
+  /** Files a treasure under its current position. Call after adding or moving it. */
+  void update(int treasure) {
+    float x = field.getX(treasure) - originX;
+    float y = field.getY(treasure) - originY;
+    float z = field.getZ(treasure) - originZ;
+    int bin;
+    if (x * x + y * y + z * z < NEAR_RADIUS * NEAR_RADIUS) {
+      bin = NEAR_BIN;
+    } else {
+      float yaw = (float) Math.atan2(x, -z);
+      float pitch = (float) Math.atan2(y, Math.sqrt(x * x + z * z));
+      bin = pitchBin(pitch) * YAW_BINS + yawBin(yaw);
+    }
+    int oldBin = bins[treasure];
+    if (bin == oldBin) {
+      return;
+    }
+    if (oldBin != NONE) {
+      unlink(treasure, oldBin);
+    }
+    int head = binHeads[bin];
+    next[treasure] = head;
+    previous[treasure] = NONE;
+    if (head != NONE) {
+      previous[head] = treasure;
+    }
+    binHeads[bin] = treasure;
+    bins[treasure] = bin;
+  }
+
+  private void unlink(int treasure, int bin) {
+    int before = previous[treasure];
+    int after = next[treasure];
+    if (before == NONE) {
+      binHeads[bin] = after;
+    } else {
+      next[before] = after;
+    }
+    if (after != NONE) {
+      previous[after] = before;
+    }
+  }
+
+  /**
+   * Finds the nearest treasure the user is looking at.
+   *
+   * @param headView The head transform, as from {@code HeadTransform.getHeadView}.
+   * @param camera The world to camera transform the frame is drawn with, which places the camera
+   *     at the user's position.
+   * @return The treasure's index, or -1 if none is within the gaze limits.
+   */
+  int pick(float[] headView, float[] camera) {
+    Matrix.multiplyMM(view, 0, headView, 0, camera, 0);
+    // The camera's position: minus its translation, rotated back into the world.
+    float cameraX = -(camera[0] * camera[12] + camera[1] * camera[13] + camera[2] * camera[14]);
+    float cameraY = -(camera[4] * camera[12] + camera[5] * camera[13] + camera[6] * camera[14]);
+    float cameraZ = -(camera[8] * camera[12] + camera[9] * camera[13] + camera[10] * camera[14]);
+    float dx = cameraX - originX;
+    float dy = cameraY - originY;
+    float dz = cameraZ - originZ;
+    float drift = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (drift > REBIN_DISTANCE) {
+      rebin(cameraX, cameraY, cameraZ);
+      drift = 0;
+    }
+    float cap = capRadius + (float) Math.asin(drift / NEAR_RADIUS);
+
+    // Straight ahead is -z in head space. The view's rotation is orthonormal, so the world
+    // direction is minus its third row.
+    float gazeX = -view[2];
+    float gazeY = -view[6];
+    float gazeZ = -view[10];
+    float gazeYaw = (float) Math.atan2(gazeX, -gazeZ);
+    float gazePitch = (float) Math.atan2(gazeY, Math.sqrt(gazeX * gazeX + gazeZ * gazeZ));
+
+    int firstPitchBin = pitchBin(gazePitch - cap);
+    int lastPitchBin = pitchBin(gazePitch + cap);
+    // How far the cap reaches in yaw, at its widest latitude.
+    float widest = Math.abs(gazePitch) + cap;
+    int yawBinCount;
+    int firstYawBin;
+    float sinReach = widest < HALF_PI
+        ? (float) (Math.sin(cap) / Math.cos(widest)) : Float.MAX_VALUE;
+    if (sinReach >= 1) {
+      // The cap covers a pole: every yaw.
+      firstYawBin = 0;
+      yawBinCount = YAW_BINS;
+    } else {
+      float reach = (float) Math.asin(sinReach);
+      firstYawBin = yawBin(gazeYaw - reach);
+      int lastYawBin = yawBin(gazeYaw + reach);
+      yawBinCount = Math.min(YAW_BINS, (lastYawBin - firstYawBin + YAW_BINS) % YAW_BINS + 1);
+    }
+
+    gazed = NONE;
+    nearest = Float.MAX_VALUE;
+    candidates = 0;
+    testBin(NEAR_BIN);
+    for (int pitchBin = firstPitchBin; pitchBin <= lastPitchBin; pitchBin++) {
+      for (int i = 0; i < yawBinCount; i++) {
+        testBin(pitchBin * YAW_BINS + (firstYawBin + i) % YAW_BINS);
+      }
+    }
+    lastCandidates = candidates;
+    return gazed;
+  }
+
+  private void testBin(int bin) {
+    for (int treasure = binHeads[bin]; treasure != NONE; treasure = next[treasure]) {
+      candidates++;
+      float depth = gazeDepth(view, treasure);
+      if (depth < nearest) {
+        gazed = treasure;
+        nearest = depth;
+      }
+    }
+  }
+
+  /** Moves the binning origin and files every treasure again. */
+  private void rebin(float x, float y, float z) {
+    originX = x;
+    originY = y;
+    originZ = z;
+    for (int treasure = 0; treasure < field.getCount(); treasure++) {
+      update(treasure);
+    }
+    rebins++;
+  }
+
+  /**
+   * Returns how far in front of the head a treasure is, if it is within the gaze limits, or
+   * {@link Float#MAX_VALUE} if not.
+   *
+   * @param m The world to head transform.
+   */
+  private float gazeDepth(float[] m, int treasure) {
+    float x = field.getX(treasure);
+    float y = field.getY(treasure);
+    float z = field.getZ(treasure);
+    float headX = m[0] * x + m[4] * y + m[8] * z + m[12];
+    float headY = m[1] * x + m[5] * y + m[9] * z + m[13];
+    float headZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+
+    float pitch = (float) Math.atan2(headY, -headZ);
+    float yaw = (float) Math.atan2(headX, -headZ);
+
+    return Math.abs(pitch) < pitchLimit && Math.abs(yaw) < yawLimit ? -headZ : Float.MAX_VALUE;
+  }
+
+  private static int yawBin(float yaw) {
+    int bin = (int) Math.floor((yaw + Math.PI) / YAW_BIN_SIZE) % YAW_BINS;
+    return bin < 0 ? bin + YAW_BINS : bin;
+  }
+
+  private static int pitchBin(float pitch) {
+    int bin = (int) Math.floor((pitch + HALF_PI) / PITCH_BIN_SIZE);
+    return Math.max(0, Math.min(PITCH_BINS - 1, bin));
+  }
+
+  /**
+   * Appends how many treasures the last query tested, and how many times the treasures have been
+   * binned again, to {@code out}.
+   */
+  void appendSummary(StringBuilder out) {
+    out.append("gaze candidates=").append(lastCandidates).append(" rebins=").append(rebins);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES calls the renderer makes, so that it can draw into something other than a GL
+ * context.
+ *
+ * <p>On the device, {@link GlesDevice} forwards every call to {@code GLES20} and {@code GLES30}.
+ * {@link RecordingGlDevice} runs without any GL at all, counting and optionally recording the
+ * calls, so that the render path can be benchmarked and its calls checked on a desktop JVM. The
+ * renderer's classes make all their GL calls through a device and take their GL constants from
+ * here, so none of them needs {@code android.opengl} to compile or run.
+ *
+ * <p>Methods are named and behave as the GL functions they stand for, taking the same arguments
+ * as the {@code GLES20} and {@code GLES30} bindings. Only the calls and constants the sample uses
+ * are here; the constants have the same values as the {@code GLES20} and {@code GLES30} ones.
+ * Like a GL context, a device must only be used on the thread it is current on.
+ */
+interface GlDevice {
+
+  int GL_NO_ERROR = 0;
+  int GL_TRUE = 1;
+  int GL_TRIANGLES = 0x0004;
+  int GL_DEPTH_BUFFER_BIT = 0x0100;
+  int GL_COLOR_BUFFER_BIT = 0x4000;
+
+  int GL_CULL_FACE = 0x0B44;
+  int GL_DEPTH_TEST = 0x0B71;
+  int GL_BLEND = 0x0BE2;
+  int GL_SCISSOR_TEST = 0x0C11;
+
+  int GL_UNSIGNED_BYTE = 0x1401;
+  int GL_UNSIGNED_SHORT = 0x1403;
+  int GL_LUMINANCE = 0x1909;
+
+  int GL_VENDOR = 0x1F00;
+  int GL_RENDERER = 0x1F01;
+  int GL_VERSION = 0x1F02;
+
+  int GL_TEXTURE_2D = 0x0DE1;
+  int GL_TEXTURE0 = 0x84C0;
+  int GL_LINEAR = 0x2601;
+  int GL_LINEAR_MIPMAP_LINEAR = 0x2703;
+  int GL_TEXTURE_MAG_FILTER = 0x2800;
+  int GL_TEXTURE_MIN_FILTER = 0x2801;
+  int GL_TEXTURE_WRAP_S = 0x2802;
+  int GL_TEXTURE_WRAP_T = 0x2803;
+  int GL_REPEAT = 0x2901;
+
+  int GL_ARRAY_BUFFER = 0x8892;
+  int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+  int GL_STATIC_DRAW = 0x88E4;
+
+  int GL_FRAGMENT_SHADER = 0x8B30;
+  int GL_VERTEX_SHADER = 0x8B31;
+  int GL_COMPILE_STATUS = 0x8B81;
+  int GL_LINK_STATUS = 0x8B82;
+
+  // OpenGL ES 3.0.
+  int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+  int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+  int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+
+  // Context queries.
+  int glGetError();
+
+  String glGetString(int name);
+
+  void glGetIntegerv(int name, int[] params, int offset);
+
+  // Fixed-function state.
+  void glEnable(int capability);
+
+  void glDisable(int capability);
+
+  void glViewport(int x, int y, int width, int height);
+
+  void glScissor(int x, int y, int width, int height);
+
+  void glClearColor(float red, float green, float blue, float alpha);
+
+  void glClear(int mask);
+
+  // Shaders and programs.
+  int glCreateShader(int type);
+
+  void glShaderSource(int shader, String source);
+
+  void glCompileShader(int shader);
+
+  void glGetShaderiv(int shader, int name, int[] params, int offset);
+
+  String glGetShaderInfoLog(int shader);
+
+  void glDeleteShader(int shader);
+
+  int glCreateProgram();
+
+  void glAttachShader(int program, int shader);
+
+  void glLinkProgram(int program);
+
+  void glGetProgramiv(int program, int name, int[] params, int offset);
+
+  String glGetProgramInfoLog(int program);
+
+  void glDeleteProgram(int program);
+
+  void glUseProgram(int program);
+
+  int glGetAttribLocation(int program, String name);
+
+  int glGetUniformLocation(int program, String name);
+
+  void glUniform3fv(int location, int count, float[] values, int offset);
+
+  void glUniform4fv(int location, int count, float[] values, int offset);
+
+  void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] values, int offset);
+
+  /** Needs OpenGL ES 3.0. */
+  void glProgramParameteri(int program, int name, int value);
+
+  /** Needs OpenGL ES 3.0. */
+  void glGetProgramBinary(int program, int bufferSize, int[] length, int lengthOffset,
+      int[] format, int formatOffset, Buffer binary);
+
+  /** Needs OpenGL ES 3.0. */
+  void glProgramBinary(int program, int format, Buffer binary, int length);
+
+  // Buffers and vertex attributes.
+  void glGenBuffers(int count, int[] buffers, int offset);
+
+  void glBindBuffer(int target, int buffer);
+
+  void glBufferData(int target, int size, Buffer data, int usage);
+
+  void glDeleteBuffers(int count, int[] buffers, int offset);
+
+  void glEnableVertexAttribArray(int location);
+
+  void glDisableVertexAttribArray(int location);
+
+  void glVertexAttribPointer(
+      int location, int size, int type, boolean normalized, int stride, int offset);
+
+  // Textures.
+  void glGenTextures(int count, int[] textures, int offset);
+
+  void glActiveTexture(int unit);
+
+  void glBindTexture(int target, int texture);
+
+  void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+      int format, int type, Buffer pixels);
+
+  void glTexParameteri(int target, int name, int value);
+
+  void glGenerateMipmap(int target);
+
+  void glDeleteTextures(int count, int[] textures, int offset);
+
+  // Drawing.
+  void glDrawElements(int mode, int count, int type, int offset);
+
+  /** Needs OpenGL ES 3.0. */
+  void glDrawElementsInstanced(int mode, int count, int type, int offset, int instances);
+}
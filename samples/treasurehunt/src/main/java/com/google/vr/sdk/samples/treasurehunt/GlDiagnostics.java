@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-frame OpenGL ES error checking that doesn't have to stall every frame.
+ *
+ * <p>{@code glGetError} is a synchronous round trip into the driver, and on some drivers it waits
+ * for queued commands. This class checks either on every frame ({@link #MODE_FULL}, throwing on
+ * the first error as the sample always did), on one frame in every N ({@link #MODE_SAMPLED},
+ * logging and counting errors), or never ({@link #MODE_OFF}).
+ *
+ * <p>Errors are counted against the label of the check that found them. GL only remembers that
+ * an error happened, not when, so on a sampled frame the errors left over from unchecked frames
+ * are drained first and counted under {@link #UNCHECKED_SITE}; the rest of the sampled frame is
+ * then attributed as precisely as in full mode.
+ *
+ * <p>{@link #onFrameStart} and {@link #check} must be called on the GL thread. The summary may be
+ * read from any thread.
+ */
+final class GlDiagnostics {
+
+  private static final String TAG = "GlDiagnostics";
+
+  /** No checks at all. */
+  static final int MODE_OFF = 0;
+  /** Checks one frame in every sample interval; errors are logged and counted. */
+  static final int MODE_SAMPLED = 1;
+  /** Checks every frame; an error throws. */
+  static final int MODE_FULL = 2;
+
+  /** The site errors from frames that weren't checked are counted under. */
+  static final String UNCHECKED_SITE = "unchecked frames";
+
+  private final GlDevice gl;
+  private final int mode;
+  private final int sampleInterval;
+
+  private long frame;
+  private boolean checking;
+
+  // Error counts keyed by call site and error code, in first-seen order. Guarded by itself.
+  private final Map<String, Integer> errorCounts = new LinkedHashMap<String, Integer>();
+
+  /**
+   * @param mode One of the {@code MODE_*} constants.
+   * @param sampleInterval In {@link #MODE_SAMPLED}, the number of frames per checked frame.
+   */
+  GlDiagnostics(GlDevice gl, int mode, int sampleInterval) {
+    if (sampleInterval < 1) {
+      throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+    }
+    this.gl = gl;
+    this.mode = mode;
+    this.sampleInterval = sampleInterval;
+    checking = mode == MODE_FULL;
+  }
+
+  /** Decides whether the frame being started is checked. */
+  void onFrameStart() {
+    if (mode != MODE_SAMPLED) {
+      return;
+    }
+    checking = frame++ % sampleInterval == 0;
+    if (checking) {
+      drainErrors(UNCHECKED_SITE);
+    }
+  }
+
+  /**
+   * Checks for errors raised since the previous check, if the current frame is being checked.
+   *
+   * @param label The call site, reported with any error.
+   * @throws RuntimeException in {@link #MODE_FULL}, if there was an error.
+   */
+  void check(String label) {
+    if (checking) {
+      drainErrors(label);
+    }
+  }
+
+  private void drainErrors(String label) {
+    int error;
+    while ((error = gl.glGetError()) != GlDevice.GL_NO_ERROR) {
+      String site = label + ": glError 0x" + Integer.toHexString(error);
+      synchronized (errorCounts) {
+        Integer count = errorCounts.get(site);
+        errorCounts.put(site, count == null ? 1 : count + 1);
+      }
+      Log.e(TAG, site);
+      if (mode == MODE_FULL) {
+        throw new RuntimeException(site);
+      }
+    }
+  }
+
+  /** Appends a one-line summary of the errors seen, by call site, to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("gl errors:");
+    synchronized (errorCounts) {
+      if (errorCounts.isEmpty()) {
+        out.append(" none");
+      }
+      for (Map.Entry<String, Integer> entry : errorCounts.entrySet()) {
+        out.append(' ').append(entry.getKey()).append(" x").append(entry.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.Arrays;
+
+/**
+ * A thin cache in front of a {@link GlDevice} that drops calls which wouldn't change anything.
+ *
+ * <p>Every GL call is a JNI crossing on the GL thread. The renderer sets up the same program,
+ * enabled arrays, buffers, attribute pointers, texture and capabilities for each eye and each
+ * object; this class remembers what is bound and only forwards the calls that change it. Uniform
+ * values are remembered per program, in slots registered when the program is created, and uploads
+ * of an unchanged value are dropped too.
+ *
+ * <p>The cache has to be the only way the renderer changes the state it tracks. Code outside the
+ * renderer, such as the distortion pass between frames, changes GL state behind its back, so
+ * {@link #invalidate} must be called at the start of every frame. That forgets the bindings but
+ * keeps the uniform values, which belong to the renderer's own programs. After the context is
+ * lost, {@link #reset} forgets everything, including the uniform slots.
+ *
+ * <p>Must only be used on the GL thread.
+ */
+final class GlStateCache {
+
+  private static final int UNKNOWN = -1;
+
+  // Attribute locations above this are passed straight through.
+  private static final int MAX_TRACKED_ATTRIBUTES = 16;
+
+  // Capabilities whose enabled state is tracked; others are passed straight through.
+  private static final int[] CAPABILITIES = {
+      GlDevice.GL_DEPTH_TEST,
+      GlDevice.GL_SCISSOR_TEST,
+      GlDevice.GL_CULL_FACE,
+      GlDevice.GL_BLEND,
+  };
+
+  // Fields of the attribute pointer cache, per location.
+  private static final int POINTER_BUFFER = 0;
+  private static final int POINTER_SIZE = 1;
+  private static final int POINTER_TYPE = 2;
+  private static final int POINTER_NORMALIZED = 3;
+  private static final int POINTER_STRIDE = 4;
+  private static final int POINTER_OFFSET = 5;
+  private static final int POINTER_FIELDS = 6;
+
+  private final GlDevice gl;
+  private final int[] capabilities = new int[CAPABILITIES.length];
+  private int program;
+  private int arrayBuffer;
+  private int elementArrayBuffer;
+  // The 2D texture bound to unit 0. While unknown, so is the active texture unit.
+  private int texture;
+  // Bit i is set if the enabled state of attribute i is known, and if it is enabled.
+  private int attributesKnown;
+  private int attributesEnabled;
+  private int pointersKnown;
+  private final int[] pointers = new int[MAX_TRACKED_ATTRIBUTES * POINTER_FIELDS];
+
+  // Uniform slots.
+  private int uniformCount;
+  private int[] uniformPrograms = new int[8];
+  private int[] uniformLocations = new int[8];
+  private float[][] uniformValues = new float[8][];
+  private int[] uniformValueLengths = new int[8];
+
+  // Written on the GL thread; reads from other threads are approximate.
+  private int issuedCalls;
+  private int skippedCalls;
+
+  GlStateCache(GlDevice gl) {
+    this.gl = gl;
+    invalidate();
+  }
+
+  /**
+   * Forgets all bound state, so the next call for each piece of state goes through. Call at the
+   * start of every frame. Uniform values are kept.
+   */
+  void invalidate() {
+    Arrays.fill(capabilities, UNKNOWN);
+    program = UNKNOWN;
+    arrayBuffer = UNKNOWN;
+    elementArrayBuffer = UNKNOWN;
+    texture = UNKNOWN;
+    attributesKnown = 0;
+    attributesEnabled = 0;
+    pointersKnown = 0;
+  }
+
+  /** Forgets everything, including the uniform slots. Call on a new context. */
+  void reset() {
+    invalidate();
+    for (int i = 0; i < uniformCount; i++) {
+      uniformValues[i] = null;
+    }
+    uniformCount = 0;
+  }
+
+  void enable(int capability) {
+    setCapability(capability, true);
+  }
+
+  void disable(int capability) {
+    setCapability(capability, false);
+  }
+
+  private void setCapability(int capability, boolean enabled) {
+    int index = capabilityIndex(capability);
+    int state = enabled ? 1 : 0;
+    if (index >= 0 && capabilities[index] == state) {
+      skippedCalls++;
+      return;
+    }
+    if (enabled) {
+      gl.glEnable(capability);
+    } else {
+      gl.glDisable(capability);
+    }
+    issuedCalls++;
+    if (index >= 0) {
+      capabilities[index] = state;
+    }
+  }
+
+  private static int capabilityIndex(int capability) {
+    for (int i = 0; i < CAPABILITIES.length; i++) {
+      if (CAPABILITIES[i] == capability) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  void useProgram(int newProgram) {
+    if (program == newProgram) {
+      skippedCalls++;
+      return;
+    }
+    gl.glUseProgram(newProgram);
+    issuedCalls++;
+    program = newProgram;
+  }
+
+  /**
+   * Binds a buffer to {@code GL_ARRAY_BUFFER} or {@code GL_ELEMENT_ARRAY_BUFFER}. Other targets
+   * are passed straight through.
+   */
+  void bindBuffer(int target, int buffer) {
+    if (target == GlDevice.GL_ARRAY_BUFFER) {
+      if (arrayBuffer == buffer) {
+        skippedCalls++;
+        return;
+      }
+      arrayBuffer = buffer;
+    } else if (target == GlDevice.GL_ELEMENT_ARRAY_BUFFER) {
+      if (elementArrayBuffer == buffer) {
+        skippedCalls++;
+        return;
+      }
+      elementArrayBuffer = buffer;
+    }
+    gl.glBindBuffer(target, buffer);
+    issuedCalls++;
+  }
+
+  /**
+   * Binds a texture to {@code GL_TEXTURE_2D} on texture unit 0, which is left active. The renderer
+   * only uses that unit.
+   */
+  void bindTexture(int newTexture) {
+    if (texture == newTexture) {
+      skippedCalls++;
+      return;
+    }
+    if (texture == UNKNOWN) {
+      gl.glActiveTexture(GlDevice.GL_TEXTURE0);
+      issuedCalls++;
+    }
+    gl.glBindTexture(GlDevice.GL_TEXTURE_2D, newTexture);
+    issuedCalls++;
+    texture = newTexture;
+  }
+
+  void enableVertexAttribArray(int location) {
+    setVertexAttribArray(location, true);
+  }
+
+  void disableVertexAttribArray(int location) {
+    setVertexAttribArray(location, false);
+  }
+
+  private void setVertexAttribArray(int location, boolean enabled) {
+    if (location < 0) {
+      return;
+    }
+    boolean tracked = location < MAX_TRACKED_ATTRIBUTES;
+    int bit = tracked ? 1 << location : 0;
+    if (tracked && (attributesKnown & bit) != 0 && ((attributesEnabled & bit) != 0) == enabled) {
+      skippedCalls++;
+      return;
+    }
+    if (enabled) {
+      gl.glEnableVertexAttribArray(location);
+      attributesEnabled |= bit;
+    } else {
+      gl.glDisableVertexAttribArray(location);
+      attributesEnabled &= ~bit;
+    }
+    attributesKnown |= bit;
+    issuedCalls++;
+  }
+
+  /**
+   * Points an attribute at an offset into the bound array buffer. Skipped if the attribute
+   * already points at the same place in the same buffer.
+   */
+  void vertexAttribPointer(
+      int location, int size, int type, boolean normalized, int stride, int offset) {
+    if (location < 0) {
+      return;
+    }
+    if (location < MAX_TRACKED_ATTRIBUTES && arrayBuffer != UNKNOWN) {
+      int bit = 1 << location;
+      int base = location * POINTER_FIELDS;
+      int normalizedValue = normalized ? 1 : 0;
+      if ((pointersKnown & bit) != 0
+          && pointers[base + POINTER_BUFFER] == arrayBuffer
+          && pointers[base + POINTER_SIZE] == size
+          && pointers[base + POINTER_TYPE] == type
+          && pointers[base + POINTER_NORMALIZED] == normalizedValue
+          && pointers[base + POINTER_STRIDE] == stride
+          && pointers[base + POINTER_OFFSET] == offset) {
+        skippedCalls++;
+        return;
+      }
+      pointers[base + POINTER_BUFFER] = arrayBuffer;
+      pointers[base + POINTER_SIZE] = size;
+      pointers[base + POINTER_TYPE] = type;
+      pointers[base + POINTER_NORMALIZED] = normalizedValue;
+      pointers[base + POINTER_STRIDE] = stride;
+      pointers[base + POINTER_OFFSET] = offset;
+      pointersKnown |= bit;
+    }
+    gl.glVertexAttribPointer(location, size, type, normalized, stride, offset);
+    issuedCalls++;
+  }
+
+  /**
+   * Registers a uniform whose uploads should be cached.
+   *
+   * @param floats The most floats that will be uploaded to it at once, e.g. 16 for a mat4.
+   * @return The slot to pass to the {@code uniform*} methods.
+   */
+  int registerUniform(int uniformProgram, String name, int floats) {
+    if (uniformCount == uniformPrograms.length) {
+      int capacity = uniformCount * 2;
+      uniformPrograms = Arrays.copyOf(uniformPrograms, capacity);
+      uniformLocations = Arrays.copyOf(uniformLocations, capacity);
+      uniformValues = Arrays.copyOf(uniformValues, capacity);
+      uniformValueLengths = Arrays.copyOf(uniformValueLengths, capacity);
+    }
+    int slot = uniformCount++;
+    uniformPrograms[slot] = uniformProgram;
+    uniformLocations[slot] = gl.glGetUniformLocation(uniformProgram, name);
+    uniformValues[slot] = new float[floats];
+    uniformValueLengths[slot] = 0;
+    return slot;
+  }
+
+  /** Uploads {@code count} vec3 values to a uniform slot, binding its program if needed. */
+  void uniform3fv(int slot, int count, float[] values, int offset) {
+    if (prepareUniform(slot, count * 3, values, offset)) {
+      gl.glUniform3fv(uniformLocations[slot], count, values, offset);
+      issuedCalls++;
+    }
+  }
+
+  /** Uploads {@code count} vec4 values to a uniform slot, binding its program if needed. */
+  void uniform4fv(int slot, int count, float[] values, int offset) {
+    if (prepareUniform(slot, count * 4, values, offset)) {
+      gl.glUniform4fv(uniformLocations[slot], count, values, offset);
+      issuedCalls++;
+    }
+  }
+
+  /** Uploads {@code count} mat4 values to a uniform slot, binding its program if needed. */
+  void uniformMatrix4fv(int slot, int count, float[] values, int offset) {
+    if (prepareUniform(slot, count * 16, values, offset)) {
+      gl.glUniformMatrix4fv(uniformLocations[slot], count, false, values, offset);
+      issuedCalls++;
+    }
+  }
+
+  /**
+   * Returns whether an upload of {@code length} floats to {@code slot} would change anything, and
+   * if so records the new value and makes the slot's program current.
+   */
+  private boolean prepareUniform(int slot, int length, float[] values, int offset) {
+    if (uniformLocations[slot] < 0) {
+      // Not used by the program; GL would ignore the upload.
+      return false;
+    }
+    float[] cached = uniformValues[slot];
+    if (length > cached.length) {
+      throw new IllegalArgumentException(
+          "Uniform slot " + slot + " holds " + cached.length + " floats, not " + length);
+    }
+    if (uniformValueLengths[slot] == length && equal(cached, values, offset, length)) {
+      skippedCalls++;
+      return false;
+    }
+    System.arraycopy(values, offset, cached, 0, length);
+    uniformValueLengths[slot] = length;
+    if (program != uniformPrograms[slot]) {
+      useProgram(uniformPrograms[slot]);
+    }
+    return true;
+  }
+
+  private static boolean equal(float[] cached, float[] values, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      // Compare bits, so that NaN matches itself and -0 doesn't match 0.
+      if (Float.floatToRawIntBits(cached[i]) != Float.floatToRawIntBits(values[offset + i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Appends the number of calls forwarded and dropped to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("gl state: issued=").append(issuedCalls).append(" skipped=").append(skippedCalls);
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+
+/**
+ * The {@link GlDevice} of the device: every call goes straight to {@link GLES20} or, for the
+ * OpenGL ES 3.0 ones, {@link GLES30}, on the current EGL context.
+ */
+final class GlesDevice implements GlDevice {
+
+  @Override
+  public int glGetError() {
+    return GLES20.glGetError();
+  }
+
+  @Override
+  public String glGetString(int name) {
+    return GLES20.glGetString(name);
+  }
+
+  @Override
+  public void glGetIntegerv(int name, int[] params, int offset) {
+    GLES20.glGetIntegerv(name, params, offset);
+  }
+
+  @Override
+  public void glEnable(int capability) {
+    GLES20.glEnable(capability);
+  }
+
+  @Override
+  public void glDisable(int capability) {
+    GLES20.glDisable(capability);
+  }
+
+  @Override
+  public void glViewport(int x, int y, int width, int height) {
+    GLES20.glViewport(x, y, width, height);
+  }
+
+  @Override
+  public void glScissor(int x, int y, int width, int height) {
+    GLES20.glScissor(x, y, width, height);
+  }
+
+  @Override
+  public void glClearColor(float red, float green, float blue, float alpha) {
+    GLES20.glClearColor(red, green, blue, alpha);
+  }
+
+  @Override
+  public void glClear(int mask) {
+    GLES20.glClear(mask);
+  }
+
+  @Override
+  public int glCreateShader(int type) {
+    return GLES20.glCreateShader(type);
+  }
+
+  @Override
+  public void glShaderSource(int shader, String source) {
+    GLES20.glShaderSource(shader, source);
+  }
+
+  @Override
+  public void glCompileShader(int shader) {
+    GLES20.glCompileShader(shader);
+  }
+
+  @Override
+  public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+    GLES20.glGetShaderiv(shader, name, params, offset);
+  }
+
+  @Override
+  public String glGetShaderInfoLog(int shader) {
+    return GLES20.glGetShaderInfoLog(shader);
+  }
+
+  @Override
+  public void glDeleteShader(int shader) {
+    GLES20.glDeleteShader(shader);
+  }
+
+  @Override
+  public int glCreateProgram() {
+    return GLES20.glCreateProgram();
+  }
+
+  @Override
+  public void glAttachShader(int program, int shader) {
+    GLES20.glAttachShader(program, shader);
+  }
+
+  @Override
+  public void glLinkProgram(int program) {
+    GLES20.glLinkProgram(program);
+  }
+
+  @Override
+  public void glGetProgramiv(int program, int name, int[] params, int offset) {
+    GLES20.glGetProgramiv(program, name, params, offset);
+  }
+
+  @Override
+  public String glGetProgramInfoLog(int program) {
+    return GLES20.glGetProgramInfoLog(program);
+  }
+
+  @Override
+  public void glDeleteProgram(int program) {
+    GLES20.glDeleteProgram(program);
+  }
+
+  @Override
+  public void glUseProgram(int program) {
+    GLES20.glUseProgram(program);
+  }
+
+  @Override
+  public int glGetAttribLocation(int program, String name) {
+    return GLES20.glGetAttribLocation(program, name);
+  }
+
+  @Override
+  public int glGetUniformLocation(int program, String name) {
+    return GLES20.glGetUniformLocation(program, name);
+  }
+
+  @Override
+  public void glUniform3fv(int location, int count, float[] values, int offset) {
+    GLES20.glUniform3fv(location, count, values, offset);
+  }
+
+  @Override
+  public void glUniform4fv(int location, int count, float[] values, int offset) {
+    GLES20.glUniform4fv(location, count, values, offset);
+  }
+
+  @Override
+  public void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] values, int offset) {
+    GLES20.glUniformMatrix4fv(location, count, transpose, values, offset);
+  }
+
+  @Override
+  public void glProgramParameteri(int program, int name, int value) {
+    GLES30.glProgramParameteri(program, name, value);
+  }
+
+  @Override
+  public void glGetProgramBinary(int program, int bufferSize, int[] length, int lengthOffset,
+      int[] format, int formatOffset, Buffer binary) {
+    GLES30.glGetProgramBinary(
+        program, bufferSize, length, lengthOffset, format, formatOffset, binary);
+  }
+
+  @Override
+  public void glProgramBinary(int program, int format, Buffer binary, int length) {
+    GLES30.glProgramBinary(program, format, binary, length);
+  }
+
+  @Override
+  public void glGenBuffers(int count, int[] buffers, int offset) {
+    GLES20.glGenBuffers(count, buffers, offset);
+  }
+
+  @Override
+  public void glBindBuffer(int target, int buffer) {
+    GLES20.glBindBuffer(target, buffer);
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    GLES20.glBufferData(target, size, data, usage);
+  }
+
+  @Override
+  public void glDeleteBuffers(int count, int[] buffers, int offset) {
+    GLES20.glDeleteBuffers(count, buffers, offset);
+  }
+
+  @Override
+  public void glEnableVertexAttribArray(int location) {
+    GLES20.glEnableVertexAttribArray(location);
+  }
+
+  @Override
+  public void glDisableVertexAttribArray(int location) {
+    GLES20.glDisableVertexAttribArray(location);
+  }
+
+  @Override
+  public void glVertexAttribPointer(
+      int location, int size, int type, boolean normalized, int stride, int offset) {
+    GLES20.glVertexAttribPointer(location, size, type, normalized, stride, offset);
+  }
+
+  @Override
+  public void glGenTextures(int count, int[] textures, int offset) {
+    GLES20.glGenTextures(count, textures, offset);
+  }
+
+  @Override
+  public void glActiveTexture(int unit) {
+    GLES20.glActiveTexture(unit);
+  }
+
+  @Override
+  public void glBindTexture(int target, int texture) {
+    GLES20.glBindTexture(target, texture);
+  }
+
+  @Override
+  public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+      int border, int format, int type, Buffer pixels) {
+    GLES20.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+  }
+
+  @Override
+  public void glTexParameteri(int target, int name, int value) {
+    GLES20.glTexParameteri(target, name, value);
+  }
+
+  @Override
+  public void glGenerateMipmap(int target) {
+    GLES20.glGenerateMipmap(target);
+  }
+
+  @Override
+  public void glDeleteTextures(int count, int[] textures, int offset) {
+    GLES20.glDeleteTextures(count, textures, offset);
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    GLES20.glDrawElements(mode, count, type, offset);
+  }
+
+  @Override
+  public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instances) {
+    GLES30.glDrawElementsInstanced(mode, count, type, offset, instances);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * One cell of the floor grid, baked into a repeating, mipmapped luminance texture: 1 on the grid
+ * lines and 0 elsewhere.
+ *
+ * <p>Testing every fragment against the grid lines takes two {@code mod}s and a branch, and the
+ * thin lines alias into flicker in the distance. A texture lookup is cheaper, and its mipmaps
+ * blend distant lines smoothly into the floor.
+ *
+ * <p>The texels are baked by {@link #bake}, which needs no GL context. Like
+ * {@link SceneGeometry}, the texture belongs to the EGL context and is uploaded again with
+ * {@link #create} on each new one. All GL methods must be called on the GL thread.
+ */
+final class GridTexture {
+
+  private final GlDevice gl;
+  private final GlStateCache state;
+  private final int[] texture = new int[1];
+  private boolean created;
+
+  GridTexture(GlDevice gl, GlStateCache state) {
+    this.gl = gl;
+    this.state = state;
+  }
+
+  /**
+   * Bakes a square cell with lines along its edges. Lines are antialiased: each texel holds the
+   * fraction of it a line covers.
+   *
+   * @param size The texels along each side. A power of two, so the texture can repeat.
+   * @param lineWidth The width of the lines, as a fraction of the cell.
+   * @return {@code size * size} luminance bytes, row by row.
+   */
+  static ByteBuffer bake(int size, float lineWidth) {
+    float[] coverage = new float[size];
+    float halfWidth = lineWidth / 2;
+    for (int i = 0; i < size; i++) {
+      float start = (float) i / size;
+      float end = (float) (i + 1) / size;
+      // The line centered on the cell's edge wraps around to both ends of the row.
+      float covered = overlap(start, end, -halfWidth, halfWidth)
+          + overlap(start, end, 1 - halfWidth, 1 + halfWidth);
+      coverage[i] = Math.min(1, covered * size);
+    }
+    ByteBuffer texels = ByteBuffer.allocateDirect(size * size).order(ByteOrder.nativeOrder());
+    for (int v = 0; v < size; v++) {
+      for (int u = 0; u < size; u++) {
+        // Where lines cross, they cover the union of both.
+        float line = 1 - (1 - coverage[u]) * (1 - coverage[v]);
+        texels.put((byte) Math.round(line * 255));
+      }
+    }
+    texels.position(0);
+    return texels;
+  }
+
+  private static float overlap(float start, float end, float lineStart, float lineEnd) {
+    return Math.max(0, Math.min(end, lineEnd) - Math.max(start, lineStart));
+  }
+
+  /**
+   * Uploads texels from {@link #bake} into a new texture on the current context, and builds its
+   * mipmaps.
+   */
+  void create(ByteBuffer texels) {
+    int size = (int) Math.round(Math.sqrt(texels.capacity()));
+    gl.glGenTextures(1, texture, 0);
+    state.bindTexture(texture[0]);
+    gl.glTexImage2D(GlDevice.GL_TEXTURE_2D, 0, GlDevice.GL_LUMINANCE, size, size, 0,
+        GlDevice.GL_LUMINANCE, GlDevice.GL_UNSIGNED_BYTE, texels);
+    gl.glGenerateMipmap(GlDevice.GL_TEXTURE_2D);
+    gl.glTexParameteri(
+        GlDevice.GL_TEXTURE_2D, GlDevice.GL_TEXTURE_MIN_FILTER, GlDevice.GL_LINEAR_MIPMAP_LINEAR);
+    gl.glTexParameteri(GlDevice.GL_TEXTURE_2D, GlDevice.GL_TEXTURE_MAG_FILTER, GlDevice.GL_LINEAR);
+    gl.glTexParameteri(GlDevice.GL_TEXTURE_2D, GlDevice.GL_TEXTURE_WRAP_S, GlDevice.GL_REPEAT);
+    gl.glTexParameteri(GlDevice.GL_TEXTURE_2D, GlDevice.GL_TEXTURE_WRAP_T, GlDevice.GL_REPEAT);
+    state.bindTexture(0);
+    created = true;
+  }
+
+  /**
+   * Binds the texture to unit 0, for sampling. Until {@link #create} has run, this binds no
+   * texture, and the floor is drawn without lines.
+   */
+  void bind() {
+    state.bindTexture(texture[0]);
+  }
+
+  /** Whether {@link #create} has run on the current context. */
+  boolean isCreated() {
+    return created;
+  }
+
+  /** Forgets the texture of a lost context, without deleting it. Call on a new context. */
+  void onContextLost() {
+    created = false;
+    texture[0] = 0;
+  }
+
+  /** Deletes the texture. The context it was created on must still be current. */
+  void release() {
+    if (!created) {
+      return;
+    }
+    state.bindTexture(0);
+    gl.glDeleteTextures(1, texture, 0);
+    onContextLost();
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size log-linear histogram of durations.
+ *
+ * <p>Durations are kept in microsecond units. Every power of two is split into eight linear
+ * sub-buckets, so any recorded value is known to within 12.5%, from 1 us up to several hours.
+ *
+ * <p>The histogram is written by a single thread and may be read from any thread. Recording is a
+ * handful of plain loads and ordered stores: no locks, no atomic read-modify-write instructions and
+ * no allocation. Readers see each counter atomically, but a read racing with a write may see the
+ * total and the buckets from slightly different moments.
+ */
+public final class LatencyHistogram {
+
+  private static final int UNIT_SHIFT = 10; // ~1 us
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_SHIFT = 32;
+
+  static final int BUCKET_COUNT = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Records one duration. Must only be called from the histogram's writer thread.
+   *
+   * @param nanos The duration; negative values (e.g. from mismatched clocks) are recorded as 0.
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    int index = bucketIndex(nanos);
+    counts.lazySet(index, counts.get(index) + 1);
+    totalNanos.lazySet(totalNanos.get() + nanos);
+    if (nanos > maxNanos.get()) {
+      maxNanos.lazySet(nanos);
+    }
+    totalCount.lazySet(totalCount.get() + 1);
+  }
+
+  /** Clears the histogram. Must only be called from the writer thread. */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.lazySet(i, 0);
+    }
+    totalNanos.lazySet(0);
+    maxNanos.lazySet(0);
+    totalCount.lazySet(0);
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getMeanNanos() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : totalNanos.get() / count;
+  }
+
+  /**
+   * Returns an upper bound on the duration below which {@code percentile} percent of the recorded
+   * values fall.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += counts.get(i);
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(bucketUpperBoundNanos(i), maxNanos.get());
+      }
+    }
+    return maxNanos.get();
+  }
+
+  /**
+   * Copies the bucket counts into {@code out}, which must hold {@link #BUCKET_COUNT} values.
+   */
+  public void copyCounts(long[] out) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      out[i] = counts.get(i);
+    }
+  }
+
+  /** Appends a one-line summary, in microseconds, to {@code out}. */
+  public void appendSummary(StringBuilder out) {
+    out.append(name)
+        .append(": n=").append(getCount())
+        .append(" mean=").append(getMeanNanos() / 1000)
+        .append(" p50=").append(getValueAtPercentile(50) / 1000)
+        .append(" p90=").append(getValueAtPercentile(90) / 1000)
+        .append(" p99=").append(getValueAtPercentile(99) / 1000)
+        .append(" max=").append(getMaxNanos() / 1000)
+        .append(" us");
+  }
+
+  static int bucketIndex(long nanos) {
+    long units = nanos >>> UNIT_SHIFT;
+    if (units < 2 * SUB_BUCKETS) {
+      return (int) units;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(units) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT) {
+      return BUCKET_COUNT - 1;
+    }
+    return shift * SUB_BUCKETS + (int) (units >>> shift);
+  }
+
+  /** Returns the smallest duration, in nanoseconds, that lands in bucket {@code index}. */
+  static long bucketLowerBoundNanos(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return (long) index << UNIT_SHIFT;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long mantissa = index - shift * SUB_BUCKETS;
+    return (mantissa << shift) << UNIT_SHIFT;
+  }
+
+  static long bucketUpperBoundNanos(int index) {
+    return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : bucketLowerBoundNanos(index + 1) - 1;
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs unindexed, per-attribute vertex arrays like those in {@link WorldLayoutData} into a single
+ * interleaved, indexed and quantized vertex buffer.
+ *
+ * <p>Attributes are added in the order they should appear in each vertex. Each one is stored as
+ * floats, signed normalized bytes (for unit vectors such as normals) or unsigned normalized bytes
+ * (for colors), and padded to four bytes. Vertices that are identical after quantization are
+ * stored once and referenced from a 16-bit index buffer. For the sample's cube, with positions,
+ * normals and two color sets, this shrinks the vertex data from 36 vertices of 56 bytes to 24
+ * vertices of 24 bytes.
+ *
+ * <p>This class has no Android dependencies.
+ */
+public final class MeshPacker {
+
+  /** 32-bit floats. */
+  public static final int FORMAT_FLOAT = 0;
+  /** Signed bytes mapping [-1, 1]; values are clamped. */
+  public static final int FORMAT_NORMALIZED_BYTE = 1;
+  /** Unsigned bytes mapping [0, 1]; values are clamped. */
+  public static final int FORMAT_NORMALIZED_UNSIGNED_BYTE = 2;
+
+  // Same values as the GLES20 constants, so PackedMesh can hand them straight to GL.
+  static final int GL_BYTE = 0x1400;
+  static final int GL_UNSIGNED_BYTE = 0x1401;
+  static final int GL_FLOAT = 0x1406;
+
+  private static final int MAX_VERTICES = 0x10000;
+
+  private final List<float[]> values = new ArrayList<float[]>();
+  private final List<Integer> components = new ArrayList<Integer>();
+  private final List<Integer> formats = new ArrayList<Integer>();
+  private int vertexCount = -1;
+
+  /**
+   * Adds the next attribute of the vertex layout.
+   *
+   * @param attributeValues {@code components} values for every vertex, in draw order.
+   * @param components Number of components per vertex, 1 to 4.
+   * @param format One of the {@code FORMAT_*} constants.
+   * @return The attribute's index in the packed mesh.
+   */
+  public int addAttribute(float[] attributeValues, int components, int format) {
+    if (components < 1 || components > 4) {
+      throw new IllegalArgumentException("Invalid component count: " + components);
+    }
+    if (format < FORMAT_FLOAT || format > FORMAT_NORMALIZED_UNSIGNED_BYTE) {
+      throw new IllegalArgumentException("Invalid format: " + format);
+    }
+    if (attributeValues.length % components != 0) {
+      throw new IllegalArgumentException(attributeValues.length
+          + " values don't divide into " + components + "-component vertices");
+    }
+    int count = attributeValues.length / components;
+    if (vertexCount >= 0 && count != vertexCount) {
+      throw new IllegalArgumentException(
+          "Attribute has " + count + " vertices, expected " + vertexCount);
+    }
+    vertexCount = count;
+    values.add(attributeValues);
+    this.components.add(components);
+    formats.add(format);
+    return values.size() - 1;
+  }
+
+  /**
+   * Interleaves, quantizes and deduplicates the vertices added so far.
+   *
+   * @throws IllegalStateException if no attributes were added, or there are more unique vertices
+   *     than 16-bit indices can address.
+   */
+  public PackedMesh pack() {
+    int attributeCount = values.size();
+    if (attributeCount == 0) {
+      throw new IllegalStateException("No attributes");
+    }
+
+    int[] offsets = new int[attributeCount];
+    int[] attributeComponents = new int[attributeCount];
+    int[] attributeFormats = new int[attributeCount];
+    int[] glTypes = new int[attributeCount];
+    boolean[] normalized = new boolean[attributeCount];
+    int stride = 0;
+    for (int a = 0; a < attributeCount; a++) {
+      int format = formats.get(a);
+      attributeComponents[a] = components.get(a);
+      attributeFormats[a] = format;
+      offsets[a] = stride;
+      glTypes[a] = format == FORMAT_FLOAT ? GL_FLOAT
+          : format == FORMAT_NORMALIZED_BYTE ? GL_BYTE : GL_UNSIGNED_BYTE;
+      normalized[a] = format != FORMAT_FLOAT;
+      int size = attributeComponents[a] * (format == FORMAT_FLOAT ? 4 : 1);
+      stride += (size + 3) & ~3;
+    }
+
+    // Each vertex is packed in place just past the unique vertices so far, and only kept if it
+    // isn't a duplicate. Duplicates are found through an open-addressed table of vertex indices
+    // keyed by the packed bytes.
+    ByteBuffer packed = ByteBuffer.allocate(vertexCount * stride).order(ByteOrder.nativeOrder());
+    byte[] bytes = packed.array();
+    int tableMask = Integer.highestOneBit(Math.max(1, vertexCount)) * 4 - 1;
+    int[] table = new int[tableMask + 1];
+    Arrays.fill(table, -1);
+    short[] indices = new short[vertexCount];
+    int uniqueCount = 0;
+
+    for (int v = 0; v < vertexCount; v++) {
+      int base = uniqueCount * stride;
+      for (int a = 0; a < attributeCount; a++) {
+        writeAttribute(packed, base + offsets[a], values.get(a), v, attributeComponents[a],
+            attributeFormats[a]);
+      }
+
+      int slot = hash(bytes, base, stride) & tableMask;
+      int index;
+      while (true) {
+        index = table[slot];
+        if (index < 0) {
+          if (uniqueCount == MAX_VERTICES) {
+            throw new IllegalStateException("More than " + MAX_VERTICES + " unique vertices");
+          }
+          index = uniqueCount++;
+          table[slot] = index;
+          break;
+        }
+        if (equal(bytes, index * stride, base, stride)) {
+          break;
+        }
+        slot = (slot + 1) & tableMask;
+      }
+      indices[v] = (short) index;
+    }
+
+    ByteBuffer vertices =
+        ByteBuffer.allocateDirect(uniqueCount * stride).order(ByteOrder.nativeOrder());
+    vertices.put(bytes, 0, uniqueCount * stride);
+    vertices.position(0);
+    return new PackedMesh(vertices, indices, uniqueCount, stride, offsets, attributeComponents,
+        glTypes, normalized);
+  }
+
+  private static void writeAttribute(
+      ByteBuffer out, int offset, float[] source, int vertex, int components, int format) {
+    int start = vertex * components;
+    for (int c = 0; c < components; c++) {
+      float value = source[start + c];
+      if (format == FORMAT_FLOAT) {
+        out.putFloat(offset + c * 4, value);
+      } else if (format == FORMAT_NORMALIZED_BYTE) {
+        out.put(offset + c, quantizeSigned(value));
+      } else {
+        out.put(offset + c, quantizeUnsigned(value));
+      }
+    }
+    // Zero the padding, so it can't make otherwise equal vertices differ.
+    int size = format == FORMAT_FLOAT ? components * 4 : components;
+    for (int i = size; i < ((size + 3) & ~3); i++) {
+      out.put(offset + i, (byte) 0);
+    }
+  }
+
+  static byte quantizeSigned(float value) {
+    float clamped = Math.max(-1f, Math.min(1f, value));
+    return (byte) Math.round(clamped * 127f);
+  }
+
+  static byte quantizeUnsigned(float value) {
+    float clamped = Math.max(0f, Math.min(1f, value));
+    return (byte) Math.round(clamped * 255f);
+  }
+
+  private static int hash(byte[] bytes, int start, int length) {
+    int h = 1;
+    for (int i = start; i < start + length; i++) {
+      h = 31 * h + bytes[i];
+    }
+    // Fold the high bits into the low ones, which select the table slot.
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equal(byte[] bytes, int a, int b, int length) {
+    for (int i = 0; i < length; i++) {
+      if (bytes[a + i] != bytes[b + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * An interleaved vertex buffer and 16-bit index buffer produced by {@link MeshPacker}, ready to be
+ * uploaded to GL.
+ *
+ * <p>The attribute accessors describe each attribute in the terms {@code glVertexAttribPointer}
+ * expects. This class has no Android dependencies.
+ */
+public final class PackedMesh {
+
+  private final ByteBuffer vertices;
+  private final short[] indices;
+  private final int vertexCount;
+  private final int stride;
+  private final int[] offsets;
+  private final int[] components;
+  private final int[] glTypes;
+  private final boolean[] normalized;
+
+  PackedMesh(ByteBuffer vertices, short[] indices, int vertexCount, int stride, int[] offsets,
+      int[] components, int[] glTypes, boolean[] normalized) {
+    this.vertices = vertices;
+    this.indices = indices;
+    this.vertexCount = vertexCount;
+    this.stride = stride;
+    this.offsets = offsets;
+    this.components = components;
+    this.glTypes = glTypes;
+    this.normalized = normalized;
+  }
+
+  /** Returns a new view of the interleaved vertex data, positioned at 0, in native byte order. */
+  public ByteBuffer getVertexData() {
+    return vertices.duplicate().order(ByteOrder.nativeOrder());
+  }
+
+  /** Returns the vertex data size in bytes. */
+  public int getVertexDataSize() {
+    return vertexCount * stride;
+  }
+
+  /** Returns the index data in a new direct buffer in native byte order. */
+  public ShortBuffer createIndexData() {
+    ShortBuffer buffer = ByteBuffer.allocateDirect(indices.length * 2)
+        .order(ByteOrder.nativeOrder())
+        .asShortBuffer();
+    buffer.put(indices);
+    buffer.position(0);
+    return buffer;
+  }
+
+  /** Returns the index data size in bytes. */
+  public int getIndexDataSize() {
+    return indices.length * 2;
+  }
+
+  /** Returns the index of the vertex drawn at position {@code i}. */
+  public int getIndex(int i) {
+    return indices[i] & 0xffff;
+  }
+
+  /** Returns the number of indices, i.e. the vertex count to pass to glDrawElements. */
+  public int getIndexCount() {
+    return indices.length;
+  }
+
+  /** Returns the number of unique vertices. */
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  /** Returns the size of one vertex in bytes. */
+  public int getStride() {
+    return stride;
+  }
+
+  public int getAttributeCount() {
+    return offsets.length;
+  }
+
+  /** Returns the byte offset of an attribute within a vertex. */
+  public int getAttributeOffset(int attribute) {
+    return offsets[attribute];
+  }
+
+  public int getAttributeComponents(int attribute) {
+    return components[attribute];
+  }
+
+  /** Returns the GL component type: GL_FLOAT, GL_BYTE or GL_UNSIGNED_BYTE. */
+  public int getAttributeGlType(int attribute) {
+    return glTypes[attribute];
+  }
+
+  /** Returns whether GL should normalize the attribute's integer components. */
+  public boolean isAttributeNormalized(int attribute) {
+    return normalized[attribute];
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Extrapolates the dead-reckoned position to the time a frame will be displayed.
+ *
+ * <p>The integrated position is as old as the last sensor sample, while the frame being rendered
+ * reaches the display a frame or two later. The predictor tracks the frame interval and estimates
+ * when the current frame will be scanned out, then extrapolates from the last sample with its
+ * velocity and acceleration. The horizon is capped at the same 50 ms the native renderer uses when
+ * it has no vsync information, so a stalled sensor stream can't fling the camera away.
+ *
+ * <p>Sensor event timestamps may be on another clock than the frame start, e.g. uptime rather than
+ * elapsed realtime on older devices, so the display time is moved onto the sensor clock with the
+ * offset measured between event timestamps and receipt before the horizon is taken.
+ *
+ * <p>This class has no Android dependencies and allocates nothing.
+ */
+public final class PosePredictor {
+
+  // Matches kPredictionTimeWithoutVsyncNanos in the NDK renderer.
+  private static final long MAX_PREDICTION_NANOS = 50000000L;
+  // Assumed interval until enough frames have been seen.
+  private static final long DEFAULT_FRAME_INTERVAL_NANOS = 16666667L;
+  // Frame intervals longer than this (pauses, hitches) don't update the estimate.
+  private static final long MAX_FRAME_INTERVAL_NANOS = 100000000L;
+  private static final float FRAME_INTERVAL_ALPHA = 0.1f;
+  // Frames between starting a frame and it reaching the display: this frame's rendering, then
+  // scan-out after the following vsync.
+  private static final float FRAMES_TO_DISPLAY = 2.0f;
+
+  private static final float NS2S = 1.0f / 1000000000.0f;
+
+  private final float[] position = new float[3];
+  private final float[] velocity = new float[3];
+  private final float[] acceleration = new float[3];
+
+  private long lastFrameStartNanos;
+  private float frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+  /**
+   * Notes the start of a frame and returns when that frame is expected to be displayed.
+   *
+   * @param frameStartNanos The frame start time, on the sensor timestamp clock.
+   */
+  public long onFrameStart(long frameStartNanos) {
+    return onFrameStart(frameStartNanos, 0);
+  }
+
+  /**
+   * Notes the start of a frame timed on another clock than the sensor timestamps, and returns when
+   * that frame is expected to be displayed, on the sensor timestamp clock so that it can be passed
+   * to {@link #predict}.
+   *
+   * @param frameStartNanos The frame start time, on the clock the samples were received on.
+   * @param clockOffsetNanos That clock minus the sensor timestamp clock, as measured by
+   *     {@link SensorSampleRing#getClockOffsetNanos}.
+   */
+  public long onFrameStart(long frameStartNanos, long clockOffsetNanos) {
+    if (lastFrameStartNanos != 0) {
+      long interval = frameStartNanos - lastFrameStartNanos;
+      if (interval > 0 && interval < MAX_FRAME_INTERVAL_NANOS) {
+        frameIntervalNanos += FRAME_INTERVAL_ALPHA * (interval - frameIntervalNanos);
+      }
+    }
+    lastFrameStartNanos = frameStartNanos;
+    return frameStartNanos - clockOffsetNanos + (long) (FRAMES_TO_DISPLAY * frameIntervalNanos);
+  }
+
+  /** Returns the smoothed interval between frames, in nanoseconds. */
+  public long getFrameIntervalNanos() {
+    return (long) frameIntervalNanos;
+  }
+
+  /**
+   * Extrapolates the integrator's position to {@code targetNanos}.
+   *
+   * @param out Receives the predicted position (x, y, z) at {@code offset}.
+   */
+  public void predict(PositionIntegrator integrator, long targetNanos, float[] out, int offset) {
+    integrator.getPosition(position, 0);
+    integrator.getVelocity(velocity, 0);
+    integrator.getAcceleration(acceleration, 0);
+    predict(position, velocity, acceleration, integrator.getTimestamp(),
+        integrator.isStationary(), targetNanos, out, offset);
+  }
+
+  /**
+   * Extrapolates a sampled state to {@code targetNanos}.
+   *
+   * @param sampleNanos When the state was sampled.
+   * @param stationary Whether the device is known to be at rest; if so, the state is not moved.
+   */
+  public static void predict(float[] position, float[] velocity, float[] acceleration,
+      long sampleNanos, boolean stationary, long targetNanos, float[] out, int offset) {
+    long horizon = targetNanos - sampleNanos;
+    if (stationary || sampleNanos == 0 || horizon <= 0) {
+      System.arraycopy(position, 0, out, offset, 3);
+      return;
+    }
+    float dt = Math.min(horizon, MAX_PREDICTION_NANOS) * NS2S;
+    float halfDtSq = 0.5f * dt * dt;
+    for (int i = 0; i < 3; i++) {
+      out[offset + i] = position[i] + velocity[i] * dt + acceleration[i] * halfDtSq;
+    }
+  }
+
+  public void reset() {
+    lastFrameStartNanos = 0;
+    frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+  }
+}
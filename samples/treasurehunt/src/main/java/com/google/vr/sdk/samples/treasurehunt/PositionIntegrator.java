@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Dead-reckons position from linear acceleration samples.
+ *
+ * <p>Each sample is integrated on all three axes, either with the trapezoidal rule or with velocity
+ * Verlet. Pure double integration drifts without bound, so the integrator also:
+ * <ul>
+ *   <li>detects when the device is at rest (zero-velocity update, or ZUPT) and zeroes the
+ *   velocity,</li>
+ *   <li>decays the velocity exponentially towards zero, and</li>
+ *   <li>clamps the position on each axis to a configurable bound.</li>
+ * </ul>
+ *
+ * <p>Every call to {@link #integrate} does a fixed amount of work and allocates nothing. This class
+ * has no Android dependencies so it can be exercised and benchmarked on a desktop JVM.
+ */
+public final class PositionIntegrator {
+
+  /** The integration scheme used for each sample. */
+  public enum Method {
+    /** Average the previous and current acceleration, then the previous and new velocity. */
+    TRAPEZOIDAL,
+    /** Velocity Verlet: advance position with the previous acceleration, then velocity. */
+    VERLET,
+  }
+
+  private static final float NS2S = 1.0f / 1000000000.0f;
+
+  private Method method = Method.TRAPEZOIDAL;
+
+  // Acceleration magnitude (m/s^2) below which a sample counts towards the rest detector.
+  private float zuptThreshold = 0.15f;
+  // How long (s) the acceleration must stay below the threshold before velocity is zeroed.
+  private float zuptDuration = 0.1f;
+  // Fraction of velocity lost per second.
+  private float velocityDecay = 0.5f;
+  // Maximum distance (m) from the origin on each axis.
+  private float maxDisplacement = 5.0f;
+  // Gaps (s) longer than this restart integration instead of producing one huge step.
+  private float maxTimeStep = 0.2f;
+
+  private final float[] position = new float[3];
+  private final float[] velocity = new float[3];
+  private final float[] lastAcceleration = new float[3];
+
+  private long lastTimestamp;
+  private boolean hasSample;
+  private float stillTime;
+  private boolean stationary;
+
+  public void setMethod(Method method) {
+    this.method = method;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  /**
+   * Configures the zero-velocity update.
+   *
+   * @param threshold Acceleration magnitude in m/s^2 treated as "not moving".
+   * @param duration Seconds the acceleration must stay below the threshold.
+   */
+  public void setZeroVelocityUpdate(float threshold, float duration) {
+    zuptThreshold = threshold;
+    zuptDuration = duration;
+  }
+
+  /**
+   * @param decayPerSecond Fraction of the velocity removed per second, in [0, 1].
+   */
+  public void setVelocityDecay(float decayPerSecond) {
+    velocityDecay = decayPerSecond;
+  }
+
+  /**
+   * @param meters Maximum distance from the origin on each axis.
+   */
+  public void setMaxDisplacement(float meters) {
+    maxDisplacement = meters;
+  }
+
+  /**
+   * @param seconds Sample gaps longer than this restart integration from the new sample.
+   */
+  public void setMaxTimeStep(float seconds) {
+    maxTimeStep = seconds;
+  }
+
+  /**
+   * Integrates one linear acceleration sample.
+   *
+   * @param timestampNanos The sample timestamp.
+   * @param ax Acceleration along x in m/s^2.
+   * @param ay Acceleration along y in m/s^2.
+   * @param az Acceleration along z in m/s^2.
+   */
+  public void integrate(long timestampNanos, float ax, float ay, float az) {
+    if (!hasSample) {
+      prime(timestampNanos, ax, ay, az);
+      return;
+    }
+
+    float dt = (timestampNanos - lastTimestamp) * NS2S;
+    if (dt <= 0f) {
+      // Duplicate or out-of-order sample; nothing to integrate.
+      return;
+    }
+    if (dt > maxTimeStep) {
+      // The stream stalled (e.g. the activity was paused). Keep the position but don't integrate
+      // across the gap.
+      velocity[0] = velocity[1] = velocity[2] = 0f;
+      prime(timestampNanos, ax, ay, az);
+      return;
+    }
+
+    updateRestDetector(dt, ax, ay, az);
+
+    float decay = Math.max(0f, 1f - velocityDecay * dt);
+    integrateAxis(0, ax, dt, decay);
+    integrateAxis(1, ay, dt, decay);
+    integrateAxis(2, az, dt, decay);
+
+    lastTimestamp = timestampNanos;
+  }
+
+  private void integrateAxis(int axis, float a, float dt, float decay) {
+    float v0 = velocity[axis];
+    float a0 = lastAcceleration[axis];
+    float v1;
+    float p = position[axis];
+
+    if (stationary) {
+      // Zero-velocity update: while at rest any residual acceleration is sensor bias.
+      v1 = 0f;
+    } else if (method == Method.VERLET) {
+      p += v0 * dt + 0.5f * a0 * dt * dt;
+      v1 = (v0 + 0.5f * (a0 + a) * dt) * decay;
+    } else {
+      v1 = (v0 + 0.5f * (a0 + a) * dt) * decay;
+      p += 0.5f * (v0 + v1) * dt;
+    }
+
+    // Bound drift. Hitting the bound also stops motion in that direction.
+    if (p > maxDisplacement) {
+      p = maxDisplacement;
+      v1 = Math.min(v1, 0f);
+    } else if (p < -maxDisplacement) {
+      p = -maxDisplacement;
+      v1 = Math.max(v1, 0f);
+    }
+
+    position[axis] = p;
+    velocity[axis] = v1;
+    lastAcceleration[axis] = a;
+  }
+
+  private void updateRestDetector(float dt, float ax, float ay, float az) {
+    float magnitudeSq = ax * ax + ay * ay + az * az;
+    if (magnitudeSq < zuptThreshold * zuptThreshold) {
+      stillTime += dt;
+    } else {
+      stillTime = 0f;
+    }
+    stationary = stillTime >= zuptDuration;
+  }
+
+  private void prime(long timestampNanos, float ax, float ay, float az) {
+    lastAcceleration[0] = ax;
+    lastAcceleration[1] = ay;
+    lastAcceleration[2] = az;
+    lastTimestamp = timestampNanos;
+    stillTime = 0f;
+    stationary = false;
+    hasSample = true;
+  }
+
+  /** Clears velocity and position and waits for a new first sample. */
+  public void reset() {
+    for (int i = 0; i < 3; i++) {
+      position[i] = 0f;
+      velocity[i] = 0f;
+      lastAcceleration[i] = 0f;
+    }
+    lastTimestamp = 0;
+    hasSample = false;
+    stillTime = 0f;
+    stationary = false;
+  }
+
+  /** Copies the current position (x, y, z) into {@code out} at {@code offset}. */
+  public void getPosition(float[] out, int offset) {
+    System.arraycopy(position, 0, out, offset, 3);
+  }
+
+  /** Copies the current velocity (x, y, z) into {@code out} at {@code offset}. */
+  public void getVelocity(float[] out, int offset) {
+    System.arraycopy(velocity, 0, out, offset, 3);
+  }
+
+  /** Copies the most recent acceleration sample (x, y, z) into {@code out} at {@code offset}. */
+  public void getAcceleration(float[] out, int offset) {
+    System.arraycopy(lastAcceleration, 0, out, offset, 3);
+  }
+
+  /** Returns the timestamp of the last integrated sample, in nanoseconds. */
+  public long getTimestamp() {
+    return lastTimestamp;
+  }
+
+  /** Returns true while the rest detector is holding the velocity at zero. */
+  public boolean isStationary() {
+    return stationary;
+  }
+}
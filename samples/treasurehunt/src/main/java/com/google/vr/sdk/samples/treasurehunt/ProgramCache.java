@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Builds shader programs, keeping the linked binaries on disk so that later runs can skip
+ * compiling and linking.
+ *
+ * <p>Each program is stored under a hash of its shader sources and of the GL vendor, renderer and
+ * version strings and the build fingerprint. Editing a shader or updating the driver or the system
+ * changes the hash, so a stale binary is simply never looked up again; {@link #pruneUnused}
+ * deletes such files once all programs of a context are built. A binary the driver rejects anyway
+ * is deleted and the program is built from source.
+ *
+ * <p>Program binaries need OpenGL ES 3.0. Android has no Java binding for the ES 2.0
+ * {@code GL_OES_get_program_binary} extension, so on an ES 2.0 context every program is built
+ * from source.
+ *
+ * <p>Must only be used on the GL thread.
+ */
+final class ProgramCache {
+
+  private static final String TAG = "ProgramCache";
+
+  private static final String FILE_SUFFIX = ".program";
+  private static final int FILE_MAGIC = 0x54485047;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final GlDevice gl;
+  private final File directory;
+
+  // Describe the current context; set by onContextCreated.
+  private String driver;
+  private boolean binariesSupported;
+
+  // Cache files looked up since the last prune.
+  private final Set<String> usedFiles = new HashSet<String>();
+
+  private int hits;
+  private int misses;
+  private long buildNanos;
+
+  /** @param directory Where to store program binaries. Created when first needed. */
+  ProgramCache(GlDevice gl, File directory) {
+    this.gl = gl;
+    this.directory = directory;
+  }
+
+  /** Reads the properties of a new context. Call before building its programs. */
+  void onContextCreated() {
+    driver = gl.glGetString(GlDevice.GL_VENDOR)
+        + '\n' + gl.glGetString(GlDevice.GL_RENDERER)
+        + '\n' + gl.glGetString(GlDevice.GL_VERSION)
+        + '\n' + Build.FINGERPRINT;
+    binariesSupported = false;
+    if (SinglePassStereo.isContextSupported(gl)) {
+      int[] formats = new int[1];
+      gl.glGetIntegerv(GlDevice.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+      binariesSupported = formats[0] > 0;
+    }
+  }
+
+  /**
+   * Returns a linked program made of the given shaders, from a stored binary if there is a usable
+   * one.
+   *
+   * @throws RuntimeException if the shaders don't compile or link.
+   */
+  int getProgram(String vertexSource, String fragmentSource) {
+    long start = SystemClock.elapsedRealtimeNanos();
+    File file = null;
+    if (binariesSupported) {
+      file = new File(directory, key(vertexSource, fragmentSource) + FILE_SUFFIX);
+      usedFiles.add(file.getName());
+      int program = loadBinary(file);
+      if (program != 0) {
+        hits++;
+        buildNanos += SystemClock.elapsedRealtimeNanos() - start;
+        return program;
+      }
+    }
+
+    misses++;
+    int vertexShader = compileShader(GlDevice.GL_VERTEX_SHADER, vertexSource);
+    int fragmentShader = compileShader(GlDevice.GL_FRAGMENT_SHADER, fragmentSource);
+    int program = linkProgram(vertexShader, fragmentShader, binariesSupported);
+    // The program keeps what it needs; the shaders are only marked for deletion until then.
+    gl.glDeleteShader(vertexShader);
+    gl.glDeleteShader(fragmentShader);
+    if (file != null) {
+      storeBinary(program, file);
+    }
+    buildNanos += SystemClock.elapsedRealtimeNanos() - start;
+    return program;
+  }
+
+  /**
+   * Deletes the stored binaries that weren't looked up since the last prune, such as those of old
+   * shader versions or drivers. Call once all programs of a context are built.
+   */
+  void pruneUnused() {
+    if (!binariesSupported) {
+      return;
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().endsWith(FILE_SUFFIX) && !usedFiles.contains(file.getName())) {
+          deleteFile(file);
+        }
+      }
+    }
+    usedFiles.clear();
+  }
+
+  /** Appends the cache hits and misses and the time spent building programs to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("programs: cached=").append(hits).append(" compiled=").append(misses)
+        .append(" time=").append(buildNanos / 1000000).append("ms");
+  }
+
+  private String key(String vertexSource, String fragmentSource) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    // The separators keep different splits of the same text from colliding.
+    digest.update(driver.getBytes(UTF_8));
+    digest.update((byte) 0);
+    digest.update(vertexSource.getBytes(UTF_8));
+    digest.update((byte) 0);
+    digest.update(fragmentSource.getBytes(UTF_8));
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return key.toString();
+  }
+
+  /** Returns a program loaded from a stored binary, or 0 if there is none or it can't be used. */
+  private int loadBinary(File file) {
+    if (!file.isFile()) {
+      return 0;
+    }
+    int format;
+    ByteBuffer binary;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(file));
+      if (in.readInt() != FILE_MAGIC) {
+        throw new IOException("Not a program binary");
+      }
+      format = in.readInt();
+      int length = in.readInt();
+      if (length <= 0 || length > file.length()) {
+        throw new IOException("Bad program binary length " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+      binary.put(bytes).position(0);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read program binary " + file, e);
+      deleteFile(file);
+      return 0;
+    } finally {
+      closeQuietly(in);
+    }
+
+    int program = gl.glCreateProgram();
+    gl.glProgramBinary(program, format, binary, binary.capacity());
+    int[] linkStatus = new int[1];
+    gl.glGetProgramiv(program, GlDevice.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == 0) {
+      // The driver changed in a way its strings don't show, or the file is damaged.
+      Log.w(TAG, "Stored program rejected: " + gl.glGetProgramInfoLog(program));
+      gl.glDeleteProgram(program);
+      deleteFile(file);
+      return 0;
+    }
+    return program;
+  }
+
+  private void storeBinary(int program, File file) {
+    int[] length = new int[1];
+    int[] format = new int[1];
+    gl.glGetProgramiv(program, GlDevice.GL_PROGRAM_BINARY_LENGTH, length, 0);
+    if (length[0] <= 0) {
+      return;
+    }
+    ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+    gl.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+    byte[] bytes = new byte[length[0]];
+    binary.get(bytes);
+
+    // Written under a temporary name and renamed, so a crash can't leave half a binary behind.
+    File temporary = new File(directory, file.getName() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Unable to create " + directory);
+      }
+      out = new DataOutputStream(new FileOutputStream(temporary));
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(format[0]);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      out.close();
+      out = null;
+      if (!temporary.renameTo(file)) {
+        throw new IOException("Unable to rename " + temporary);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to store program binary " + file, e);
+      deleteFile(temporary);
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Unable to delete " + file);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // Nothing was written through it, or the error was already reported.
+    }
+  }
+
+  /**
+   * Compiles an OpenGL ES shader.
+   *
+   * @param type The type of shader we will be creating.
+   * @param code The shader source.
+   * @return The shader object handler.
+   */
+  private int compileShader(int type, String code) {
+    int shader = gl.glCreateShader(type);
+    gl.glShaderSource(shader, code);
+    gl.glCompileShader(shader);
+
+    // Get the compilation status.
+    final int[] compileStatus = new int[1];
+    gl.glGetShaderiv(shader, GlDevice.GL_COMPILE_STATUS, compileStatus, 0);
+
+    // If the compilation failed, delete the shader.
+    if (compileStatus[0] == 0) {
+      Log.e(TAG, "Error compiling shader: " + gl.glGetShaderInfoLog(shader));
+      gl.glDeleteShader(shader);
+      shader = 0;
+    }
+
+    if (shader == 0) {
+      throw new RuntimeException("Error creating shader.");
+    }
+
+    return shader;
+  }
+
+  /**
+   * Links a vertex and a fragment shader into a program.
+   *
+   * @param retrievable Whether to ask for the binary to be kept retrievable. Needs OpenGL ES 3.0.
+   * @return The program object handler.
+   */
+  private int linkProgram(int vertexShader, int fragmentShader, boolean retrievable) {
+    int program = gl.glCreateProgram();
+    gl.glAttachShader(program, vertexShader);
+    gl.glAttachShader(program, fragmentShader);
+    if (retrievable) {
+      gl.glProgramParameteri(
+          program, GlDevice.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GlDevice.GL_TRUE);
+    }
+    gl.glLinkProgram(program);
+
+    final int[] linkStatus = new int[1];
+    gl.glGetProgramiv(program, GlDevice.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == 0) {
+      Log.e(TAG, "Error linking program: " + gl.glGetProgramInfoLog(program));
+      gl.glDeleteProgram(program);
+      throw new RuntimeException("Error creating program.");
+    }
+    return program;
+  }
+}
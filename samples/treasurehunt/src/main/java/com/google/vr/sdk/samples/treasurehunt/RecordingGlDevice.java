@@ -0,0 +1,463 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link GlDevice} with no GL behind it, which counts the calls made to it and can record them.
+ *
+ * <p>Every call is counted, and so are draw calls and the indices they draw, calls that change
+ * state (capabilities, bindings, attribute pointers, uniforms and the like), and the bytes handed
+ * over in buffer, texture and uniform uploads. If asked to, the device also records each call as a
+ * line of text, its name followed by its scalar arguments, so that the call stream of a frame can
+ * be compared with an expected one. Counting allocates nothing, so the render path can be
+ * benchmarked against it; recording allocates a string per call.
+ *
+ * <p>The device behaves like a working OpenGL ES 3.0 context that draws nothing. Objects get
+ * fresh names, shaders compile and programs link, every attribute and uniform looked up exists,
+ * and there are never any errors. It reports no program binary formats, so that
+ * {@link ProgramCache} always builds from source.
+ *
+ * <p>This class has no Android dependencies.
+ */
+final class RecordingGlDevice implements GlDevice {
+
+  /** What {@link #glGetString} returns for {@link #GL_VERSION}. */
+  static final String VERSION = "OpenGL ES 3.0 RecordingGlDevice";
+
+  // Recorded calls, or null when calls are only counted.
+  private final List<String> calls;
+
+  private int nextName = 1;
+  // Locations handed out, keyed by program and name, and the number handed out per program.
+  private final Map<String, Integer> locations = new HashMap<String, Integer>();
+  private final Map<Integer, Integer> locationCounts = new HashMap<Integer, Integer>();
+
+  private long callCount;
+  private long drawCalls;
+  private long drawnIndices;
+  private long stateChanges;
+  private long uploadedBytes;
+
+  /** @param recordCalls Whether to record each call, for {@link #getCalls}. */
+  RecordingGlDevice(boolean recordCalls) {
+    calls = recordCalls ? new ArrayList<String>() : null;
+  }
+
+  /** Returns the calls recorded since creation or the last {@link #reset}, oldest first. */
+  List<String> getCalls() {
+    if (calls == null) {
+      throw new IllegalStateException("Calls aren't being recorded");
+    }
+    return Collections.unmodifiableList(calls);
+  }
+
+  long getCallCount() {
+    return callCount;
+  }
+
+  long getDrawCalls() {
+    return drawCalls;
+  }
+
+  /** Returns the indices drawn, counting each instance of an instanced draw. */
+  long getDrawnIndices() {
+    return drawnIndices;
+  }
+
+  long getStateChanges() {
+    return stateChanges;
+  }
+
+  long getUploadedBytes() {
+    return uploadedBytes;
+  }
+
+  /** Clears the counters and the recorded calls. Object names and locations are kept. */
+  void reset() {
+    if (calls != null) {
+      calls.clear();
+    }
+    callCount = 0;
+    drawCalls = 0;
+    drawnIndices = 0;
+    stateChanges = 0;
+    uploadedBytes = 0;
+  }
+
+  /** Appends the counters to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("gl calls: total=").append(callCount)
+        .append(" draws=").append(drawCalls)
+        .append(" indices=").append(drawnIndices)
+        .append(" state changes=").append(stateChanges)
+        .append(" uploaded=").append(uploadedBytes).append(" bytes");
+  }
+
+  private void call(String name) {
+    callCount++;
+    if (calls != null) {
+      calls.add(name);
+    }
+  }
+
+  private void call(String name, int a) {
+    callCount++;
+    if (calls != null) {
+      calls.add(name + "(" + a + ")");
+    }
+  }
+
+  private void call(String name, int a, int b) {
+    callCount++;
+    if (calls != null) {
+      calls.add(name + "(" + a + ", " + b + ")");
+    }
+  }
+
+  private void call(String name, int a, int b, int c) {
+    callCount++;
+    if (calls != null) {
+      calls.add(name + "(" + a + ", " + b + ", " + c + ")");
+    }
+  }
+
+  private void call(String name, int a, int b, int c, int d) {
+    callCount++;
+    if (calls != null) {
+      calls.add(name + "(" + a + ", " + b + ", " + c + ", " + d + ")");
+    }
+  }
+
+  private void genNames(String name, int count, int[] names, int offset) {
+    for (int i = 0; i < count; i++) {
+      names[offset + i] = nextName++;
+    }
+    call(name, count);
+  }
+
+  private int location(int program, String name) {
+    String key = program + "/" + name;
+    Integer location = locations.get(key);
+    if (location == null) {
+      Integer count = locationCounts.get(program);
+      location = count == null ? 0 : count;
+      locationCounts.put(program, location + 1);
+      locations.put(key, location);
+    }
+    return location;
+  }
+
+  private void uniform(String name, int location, int count, int floats) {
+    stateChanges++;
+    uploadedBytes += 4L * floats * count;
+    call(name, location, count);
+  }
+
+  @Override
+  public int glGetError() {
+    call("glGetError");
+    return GL_NO_ERROR;
+  }
+
+  @Override
+  public String glGetString(int name) {
+    call("glGetString", name);
+    switch (name) {
+      case GL_VENDOR:
+        return "none";
+      case GL_RENDERER:
+        return "RecordingGlDevice";
+      case GL_VERSION:
+        return VERSION;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public void glGetIntegerv(int name, int[] params, int offset) {
+    call("glGetIntegerv", name);
+    params[offset] = 0;
+  }
+
+  @Override
+  public void glEnable(int capability) {
+    stateChanges++;
+    call("glEnable", capability);
+  }
+
+  @Override
+  public void glDisable(int capability) {
+    stateChanges++;
+    call("glDisable", capability);
+  }
+
+  @Override
+  public void glViewport(int x, int y, int width, int height) {
+    stateChanges++;
+    call("glViewport", x, y, width, height);
+  }
+
+  @Override
+  public void glScissor(int x, int y, int width, int height) {
+    stateChanges++;
+    call("glScissor", x, y, width, height);
+  }
+
+  @Override
+  public void glClearColor(float red, float green, float blue, float alpha) {
+    stateChanges++;
+    call("glClearColor");
+  }
+
+  @Override
+  public void glClear(int mask) {
+    call("glClear", mask);
+  }
+
+  @Override
+  public int glCreateShader(int type) {
+    call("glCreateShader", type);
+    return nextName++;
+  }
+
+  @Override
+  public void glShaderSource(int shader, String source) {
+    call("glShaderSource", shader);
+  }
+
+  @Override
+  public void glCompileShader(int shader) {
+    call("glCompileShader", shader);
+  }
+
+  @Override
+  public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+    call("glGetShaderiv", shader, name);
+    params[offset] = name == GL_COMPILE_STATUS ? GL_TRUE : 0;
+  }
+
+  @Override
+  public String glGetShaderInfoLog(int shader) {
+    call("glGetShaderInfoLog", shader);
+    return "";
+  }
+
+  @Override
+  public void glDeleteShader(int shader) {
+    call("glDeleteShader", shader);
+  }
+
+  @Override
+  public int glCreateProgram() {
+    call("glCreateProgram");
+    return nextName++;
+  }
+
+  @Override
+  public void glAttachShader(int program, int shader) {
+    call("glAttachShader", program, shader);
+  }
+
+  @Override
+  public void glLinkProgram(int program) {
+    call("glLinkProgram", program);
+  }
+
+  @Override
+  public void glGetProgramiv(int program, int name, int[] params, int offset) {
+    call("glGetProgramiv", program, name);
+    params[offset] = name == GL_LINK_STATUS ? GL_TRUE : 0;
+  }
+
+  @Override
+  public String glGetProgramInfoLog(int program) {
+    call("glGetProgramInfoLog", program);
+    return "";
+  }
+
+  @Override
+  public void glDeleteProgram(int program) {
+    call("glDeleteProgram", program);
+  }
+
+  @Override
+  public void glUseProgram(int program) {
+    stateChanges++;
+    call("glUseProgram", program);
+  }
+
+  @Override
+  public int glGetAttribLocation(int program, String name) {
+    call("glGetAttribLocation", program);
+    return location(program, name);
+  }
+
+  @Override
+  public int glGetUniformLocation(int program, String name) {
+    call("glGetUniformLocation", program);
+    return location(program, name);
+  }
+
+  @Override
+  public void glUniform3fv(int location, int count, float[] values, int offset) {
+    uniform("glUniform3fv", location, count, 3);
+  }
+
+  @Override
+  public void glUniform4fv(int location, int count, float[] values, int offset) {
+    uniform("glUniform4fv", location, count, 4);
+  }
+
+  @Override
+  public void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] values, int offset) {
+    uniform("glUniformMatrix4fv", location, count, 16);
+  }
+
+  @Override
+  public void glProgramParameteri(int program, int name, int value) {
+    call("glProgramParameteri", program, name, value);
+  }
+
+  @Override
+  public void glGetProgramBinary(int program, int bufferSize, int[] length, int lengthOffset,
+      int[] format, int formatOffset, Buffer binary) {
+    call("glGetProgramBinary", program);
+    length[lengthOffset] = 0;
+    format[formatOffset] = 0;
+  }
+
+  @Override
+  public void glProgramBinary(int program, int format, Buffer binary, int length) {
+    uploadedBytes += length;
+    call("glProgramBinary", program, format, length);
+  }
+
+  @Override
+  public void glGenBuffers(int count, int[] buffers, int offset) {
+    genNames("glGenBuffers", count, buffers, offset);
+  }
+
+  @Override
+  public void glBindBuffer(int target, int buffer) {
+    stateChanges++;
+    call("glBindBuffer", target, buffer);
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    uploadedBytes += size;
+    call("glBufferData", target, size, usage);
+  }
+
+  @Override
+  public void glDeleteBuffers(int count, int[] buffers, int offset) {
+    call("glDeleteBuffers", count);
+  }
+
+  @Override
+  public void glEnableVertexAttribArray(int location) {
+    stateChanges++;
+    call("glEnableVertexAttribArray", location);
+  }
+
+  @Override
+  public void glDisableVertexAttribArray(int location) {
+    stateChanges++;
+    call("glDisableVertexAttribArray", location);
+  }
+
+  @Override
+  public void glVertexAttribPointer(
+      int location, int size, int type, boolean normalized, int stride, int offset) {
+    stateChanges++;
+    callCount++;
+    if (calls != null) {
+      calls.add("glVertexAttribPointer(" + location + ", " + size + ", " + type + ", "
+          + normalized + ", " + stride + ", " + offset + ")");
+    }
+  }
+
+  @Override
+  public void glGenTextures(int count, int[] textures, int offset) {
+    genNames("glGenTextures", count, textures, offset);
+  }
+
+  @Override
+  public void glActiveTexture(int unit) {
+    stateChanges++;
+    call("glActiveTexture", unit);
+  }
+
+  @Override
+  public void glBindTexture(int target, int texture) {
+    stateChanges++;
+    call("glBindTexture", target, texture);
+  }
+
+  @Override
+  public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+      int border, int format, int type, Buffer pixels) {
+    if (pixels != null) {
+      // The sample only uploads bytes: one per luminance texel, four per RGBA one.
+      uploadedBytes += (long) width * height * (format == GL_LUMINANCE ? 1 : 4);
+    }
+    call("glTexImage2D", level, internalFormat, width, height);
+  }
+
+  @Override
+  public void glTexParameteri(int target, int name, int value) {
+    stateChanges++;
+    call("glTexParameteri", target, name, value);
+  }
+
+  @Override
+  public void glGenerateMipmap(int target) {
+    call("glGenerateMipmap", target);
+  }
+
+  @Override
+  public void glDeleteTextures(int count, int[] textures, int offset) {
+    call("glDeleteTextures", count);
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    drawCalls++;
+    drawnIndices += count;
+    call("glDrawElements", mode, count, type, offset);
+  }
+
+  @Override
+  public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instances) {
+    drawCalls++;
+    drawnIndices += (long) count * instances;
+    callCount++;
+    if (calls != null) {
+      calls.add("glDrawElementsInstanced(" + mode + ", " + count + ", " + type + ", " + offset
+          + ", " + instances + ")");
+    }
+  }
+}
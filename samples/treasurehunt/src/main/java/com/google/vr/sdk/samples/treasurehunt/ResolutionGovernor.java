@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Picks the resolution scale of the eye render targets from measured frame times, so that a phone
+ * that throttles keeps up with the display by rendering fewer pixels.
+ *
+ * <p>Two measurements make up the load the governor controls. The CPU time of a frame, as a
+ * fraction of the display period, shows how much headroom is left. GPU time can't be measured
+ * from Java, but GPU overload shows up as frames that miss their vsync, and the rate of those is
+ * scaled so that {@link #TARGET_MISS_RATE} counts as {@link #TARGET_LOAD}. A PID controller drives
+ * the larger of the two towards the target, its output being the scale. It is written in velocity
+ * form, adding each frame's change to the output, so clamping the output can't wind it up. Going
+ * down reacts faster than going up: a dropped frame costs more than a slightly blurrier one.
+ *
+ * <p>Changing the scale reallocates the render targets, so the applied scale has hysteresis. It
+ * moves in steps, only once the controller's output is a whole step away, and not again until the
+ * frames have settled. Since the CPU time can't show GPU headroom, going up is a probe: if it
+ * brings the scale straight back down, the scale it left is held off for a while, twice as long
+ * each time that repeats, so the governor doesn't keep dropping frames to find the same limit.
+ *
+ * <p>The governor is deterministic and has no Android dependencies, so it can be run against
+ * recorded frame times. Not thread-safe; used on the GL thread.
+ */
+final class ResolutionGovernor {
+
+  /** The load the controller aims for: CPU time as a fraction of the display period. */
+  static final float TARGET_LOAD = 0.8f;
+  /** The fraction of frames that may miss their vsync. */
+  static final float TARGET_MISS_RATE = 0.01f;
+
+  // Frames this many display periods long or more missed at least one vsync.
+  private static final float MISSED_FRAME_PERIODS = 1.5f;
+  // Longer intervals are pauses or one-off hitches, not load, and are ignored.
+  private static final long MAX_FRAME_INTERVAL_NANOS = 100000000L;
+  private static final float CPU_LOAD_ALPHA = 0.1f;
+  private static final float MISS_RATE_ALPHA = 0.02f;
+  // Bounds how hard a burst of missed frames pushes the controller.
+  private static final float MAX_LOAD = 2 * TARGET_LOAD;
+
+  private static final float KP = 0.05f;
+  private static final float KI_DOWN = 0.02f;
+  private static final float KI_UP = 0.004f;
+  private static final float KD = 0.02f;
+
+  private static final float STEP = 0.05f;
+  // Frames ignored after a change, while the render targets are reallocated.
+  private static final int SETTLE_FRAMES = 10;
+  // Frames between changes, counted from the last one.
+  private static final int DOWN_DWELL_FRAMES = 15;
+  private static final int UP_DWELL_FRAMES = 120;
+  // How long a scale that was just left for being too slow is held off, at first and at most.
+  private static final int HOLD_OFF_FRAMES = 300;
+  private static final int MAX_HOLD_OFF_FRAMES = 3600;
+
+  private final long periodNanos;
+  private final float minScale;
+  // Scales are minScale plus a whole number of steps, up to maxLevel.
+  private final int maxLevel;
+
+  private int level;
+  // The controller's output, in steps above minScale.
+  private float output;
+  private float cpuLoad;
+  private float missRate;
+  private float load;
+  private float lastError;
+  private float secondLastError;
+  private int framesSinceChange;
+
+  // After going down from ceiling, only lower levels are allowed for holdOffRemaining frames.
+  private int ceiling = Integer.MAX_VALUE;
+  private int holdOff = HOLD_OFF_FRAMES;
+  private int holdOffRemaining;
+  // Whether the last change was up, so a change straight back down shows the probe failed.
+  private boolean probing;
+
+  private int changes;
+
+  /**
+   * @param periodNanos The display's refresh period.
+   * @param minScale The lowest scale to go to.
+   * @param maxScale The highest scale, where the governor starts.
+   */
+  ResolutionGovernor(long periodNanos, float minScale, float maxScale) {
+    this.periodNanos = periodNanos;
+    this.minScale = minScale;
+    maxLevel = Math.round((maxScale - minScale) / STEP);
+    level = maxLevel;
+    output = maxLevel;
+  }
+
+  /**
+   * Records a frame and returns the scale to render at.
+   *
+   * @param intervalNanos The time since the previous frame started.
+   * @param cpuNanos The time the frame took on the GL thread.
+   */
+  float onFrame(long intervalNanos, long cpuNanos) {
+    framesSinceChange++;
+    if (holdOffRemaining > 0) {
+      holdOffRemaining--;
+    }
+    if (intervalNanos <= 0 || intervalNanos > MAX_FRAME_INTERVAL_NANOS
+        || framesSinceChange <= SETTLE_FRAMES) {
+      return getScale();
+    }
+
+    cpuLoad += CPU_LOAD_ALPHA * ((float) cpuNanos / periodNanos - cpuLoad);
+    boolean missed = intervalNanos >= MISSED_FRAME_PERIODS * periodNanos;
+    missRate += MISS_RATE_ALPHA * ((missed ? 1 : 0) - missRate);
+    load = Math.min(MAX_LOAD, Math.max(cpuLoad, TARGET_LOAD * missRate / TARGET_MISS_RATE));
+
+    float error = TARGET_LOAD - load;
+    float ki = error < 0 ? KI_DOWN : KI_UP;
+    output += (KP * (error - lastError) + ki * error
+        + KD * (error - 2 * lastError + secondLastError)) / STEP;
+    secondLastError = lastError;
+    lastError = error;
+    int highest = holdOffRemaining > 0 ? ceiling - 1 : maxLevel;
+    output = Math.max(0, Math.min(highest, output));
+
+    // Only a whole step away from the current level counts.
+    int target = Math.abs(output - level) < 1 ? level : Math.round(output);
+    if (target < level && framesSinceChange >= DOWN_DWELL_FRAMES) {
+      // Coming straight back down from a probe means the level left is too slow for now.
+      holdOff = probing && ceiling == level
+          ? Math.min(2 * holdOff, MAX_HOLD_OFF_FRAMES) : HOLD_OFF_FRAMES;
+      ceiling = level;
+      holdOffRemaining = holdOff;
+      probing = false;
+      setLevel(target);
+    } else if (target > level && framesSinceChange >= UP_DWELL_FRAMES) {
+      probing = true;
+      setLevel(target);
+    }
+    return getScale();
+  }
+
+  private void setLevel(int newLevel) {
+    // Misses at the old scale say nothing about the new one.
+    missRate = 0;
+    level = newLevel;
+    framesSinceChange = 0;
+    changes++;
+  }
+
+  /** Returns the scale to render at. */
+  float getScale() {
+    return minScale + level * STEP;
+  }
+
+  /** Appends the current scale, the smoothed load and the number of changes to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("resolution: scale=").append(Math.round(getScale() * 100)).append('%')
+        .append(" load=").append(Math.round(load * 100)).append('%')
+        .append(" changes=").append(changes);
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * The scene's meshes, uploaded once into static vertex and index buffer objects.
+ *
+ * <p>Drawing from client-side arrays makes the driver copy every vertex on every draw call. Here
+ * the {@link WorldLayoutData} arrays are packed by {@link MeshPacker} into one interleaved,
+ * quantized vertex buffer and one index buffer per mesh, copied to the GPU once in {@link #create},
+ * and drawing only binds buffer handles.
+ *
+ * <p>Packing is done by {@link #packMeshes}, which needs no GL context, so it can run on a loader
+ * thread while the surface is being created.
+ *
+ * <p>Buffer objects belong to the EGL context. When the context is lost (for example when the app
+ * is paused) the handles die with it, and {@code onSurfaceCreated} runs again on a new context;
+ * calling {@link #create} from there uploads everything afresh. The packed meshes themselves are
+ * kept, so only the upload is repeated. All GL methods must be called on the GL thread.
+ *
+ * <p>The floor mesh is laid out by {@link FloorClipmap} and moved with the user, so it never ends.
+ *
+ * <p>The treasure mesh holds {@link #TREASURE_BATCH_SIZE} copies of the cube, each tagged with its
+ * copy number in {@link #ATTRIBUTE_COPY}, so that many treasures can be drawn in one call without
+ * instancing; see {@link TreasureRenderer}.
+ */
+final class SceneGeometry {
+
+  static final int MESH_TREASURES = 0;
+  static final int MESH_FLOOR = 1;
+
+  /** The number of copies of the cube in the treasure mesh. */
+  static final int TREASURE_BATCH_SIZE = 64;
+
+  // Attributes of both meshes.
+  static final int ATTRIBUTE_POSITION = 0;
+  static final int ATTRIBUTE_NORMAL = 1;
+  static final int ATTRIBUTE_COLOR = 2;
+  // Treasures only: the color used while the user looks at one, and which copy a vertex is in.
+  static final int ATTRIBUTE_FOUND_COLOR = 3;
+  static final int ATTRIBUTE_COPY = 4;
+  // Floor only: coordinates in the grid texture.
+  static final int ATTRIBUTE_GRID_COORD = 3;
+
+  private static final int MESH_COUNT = 2;
+
+  private final GlDevice gl;
+  private final GlStateCache state;
+  private final PackedMesh[] meshes = new PackedMesh[MESH_COUNT];
+  private final int[] vertexBuffers = new int[MESH_COUNT];
+  private final int[] indexBuffers = new int[MESH_COUNT];
+  // Indices per copy of each mesh.
+  private final int[] copyIndexCounts = new int[MESH_COUNT];
+  private boolean created;
+
+  SceneGeometry(GlDevice gl, GlStateCache state) {
+    this.gl = gl;
+    this.state = state;
+  }
+
+  /**
+   * Packs all meshes, for {@link #create}. This is slow but needs no GL context, so it can run on
+   * a background thread.
+   */
+  static PackedMesh[] packMeshes(FloorClipmap floor) {
+    PackedMesh[] packed = new PackedMesh[MESH_COUNT];
+    int copies = TREASURE_BATCH_SIZE;
+    int cubeVertices = WorldLayoutData.CUBE_COORDS.length / 3;
+    MeshPacker treasures = packer(repeat(WorldLayoutData.CUBE_COORDS, copies),
+        repeat(WorldLayoutData.CUBE_NORMALS, copies), repeat(WorldLayoutData.CUBE_COLORS, copies),
+        repeat(WorldLayoutData.CUBE_FOUND_COLORS, copies));
+    treasures.addAttribute(copyNumbers(cubeVertices, copies), 1, MeshPacker.FORMAT_FLOAT);
+    packed[MESH_TREASURES] = treasures.pack();
+
+    float[] floorCoords = floor.buildCoords();
+    int floorVertices = floorCoords.length / 3;
+    MeshPacker floorPacker = packer(floorCoords,
+        repeat(WorldLayoutData.FLOOR_NORMAL, floorVertices),
+        repeat(WorldLayoutData.FLOOR_COLOR, floorVertices), null);
+    floorPacker.addAttribute(floor.buildGridCoords(), 2, MeshPacker.FORMAT_FLOAT);
+    packed[MESH_FLOOR] = floorPacker.pack();
+    return packed;
+  }
+
+  /** Returns a packer with the {@code ATTRIBUTE_*} layout, for further attributes to be added. */
+  private static MeshPacker packer(
+      float[] coords, float[] normals, float[] colors, float[] foundColors) {
+    MeshPacker packer = new MeshPacker();
+    packer.addAttribute(coords, 3, MeshPacker.FORMAT_FLOAT);
+    packer.addAttribute(normals, 3, MeshPacker.FORMAT_NORMALIZED_BYTE);
+    packer.addAttribute(colors, 4, MeshPacker.FORMAT_NORMALIZED_UNSIGNED_BYTE);
+    if (foundColors != null) {
+      packer.addAttribute(foundColors, 4, MeshPacker.FORMAT_NORMALIZED_UNSIGNED_BYTE);
+    }
+    return packer;
+  }
+
+  /** Returns {@code copies} copies of an unindexed attribute array, one after the other. */
+  static float[] repeat(float[] values, int copies) {
+    float[] repeated = new float[values.length * copies];
+    for (int i = 0; i < copies; i++) {
+      System.arraycopy(values, 0, repeated, i * values.length, values.length);
+    }
+    return repeated;
+  }
+
+  /** Returns the copy number of every vertex of {@code copies} copies of a mesh. */
+  private static float[] copyNumbers(int verticesPerCopy, int copies) {
+    float[] numbers = new float[verticesPerCopy * copies];
+    for (int i = 0; i < numbers.length; i++) {
+      numbers[i] = i / verticesPerCopy;
+    }
+    return numbers;
+  }
+
+  /**
+   * Uploads meshes from {@link #packMeshes} into new buffer objects on the current context. Handles
+   * from an earlier, lost context are simply forgotten: they can't be deleted on this one.
+   */
+  void create(PackedMesh[] packed) {
+    System.arraycopy(packed, 0, meshes, 0, MESH_COUNT);
+    copyIndexCounts[MESH_TREASURES] = meshes[MESH_TREASURES].getIndexCount() / TREASURE_BATCH_SIZE;
+    copyIndexCounts[MESH_FLOOR] = meshes[MESH_FLOOR].getIndexCount();
+    gl.glGenBuffers(MESH_COUNT, vertexBuffers, 0);
+    gl.glGenBuffers(MESH_COUNT, indexBuffers, 0);
+    for (int i = 0; i < MESH_COUNT; i++) {
+      PackedMesh mesh = meshes[i];
+      state.bindBuffer(GlDevice.GL_ARRAY_BUFFER, vertexBuffers[i]);
+      gl.glBufferData(GlDevice.GL_ARRAY_BUFFER, mesh.getVertexDataSize(), mesh.getVertexData(),
+          GlDevice.GL_STATIC_DRAW);
+      state.bindBuffer(GlDevice.GL_ELEMENT_ARRAY_BUFFER, indexBuffers[i]);
+      gl.glBufferData(GlDevice.GL_ELEMENT_ARRAY_BUFFER, mesh.getIndexDataSize(),
+          mesh.createIndexData(), GlDevice.GL_STATIC_DRAW);
+    }
+    unbind();
+    created = true;
+  }
+
+  /** Whether {@link #create} has run on the current context, so the meshes can be drawn. */
+  boolean isCreated() {
+    return created;
+  }
+
+  /**
+   * Forgets the buffer objects of a lost context, without deleting them. Call when a new context
+   * is created; the meshes can't be drawn until the next {@link #create}.
+   */
+  void onContextLost() {
+    created = false;
+    for (int i = 0; i < MESH_COUNT; i++) {
+      vertexBuffers[i] = 0;
+      indexBuffers[i] = 0;
+    }
+  }
+
+  /** Binds a mesh's vertex and index buffers for {@link #bindAttribute} and {@link #draw}. */
+  void bind(int mesh) {
+    state.bindBuffer(GlDevice.GL_ARRAY_BUFFER, vertexBuffers[mesh]);
+    state.bindBuffer(GlDevice.GL_ELEMENT_ARRAY_BUFFER, indexBuffers[mesh]);
+  }
+
+  /**
+   * Points a vertex attribute at one of the bound mesh's attributes.
+   *
+   * @param attribute One of the {@code ATTRIBUTE_*} constants.
+   * @param location The attribute location in the current program.
+   */
+  void bindAttribute(int mesh, int attribute, int location) {
+    PackedMesh packed = meshes[mesh];
+    state.vertexAttribPointer(location,
+        packed.getAttributeComponents(attribute),
+        packed.getAttributeGlType(attribute),
+        packed.isAttributeNormalized(attribute),
+        packed.getStride(),
+        packed.getAttributeOffset(attribute));
+  }
+
+  /** Draws the bound mesh as triangles. */
+  void draw(int mesh) {
+    gl.glDrawElements(
+        GlDevice.GL_TRIANGLES, meshes[mesh].getIndexCount(), GlDevice.GL_UNSIGNED_SHORT, 0);
+  }
+
+  /**
+   * Draws the first {@code copies} copies of the bound mesh. The copies come one after another in
+   * the index buffer, so this is a shorter draw of the same indices.
+   */
+  void drawCopies(int mesh, int copies) {
+    gl.glDrawElements(GlDevice.GL_TRIANGLES, copies * copyIndexCounts[mesh],
+        GlDevice.GL_UNSIGNED_SHORT, 0);
+  }
+
+  /** Draws {@code instances} instances of the bound mesh. Needs OpenGL ES 3.0. */
+  void drawInstanced(int mesh, int instances) {
+    gl.glDrawElementsInstanced(GlDevice.GL_TRIANGLES, meshes[mesh].getIndexCount(),
+        GlDevice.GL_UNSIGNED_SHORT, 0, instances);
+  }
+
+  /**
+   * Draws {@code instances} instances of the first {@code copies} copies of the bound mesh. Needs
+   * OpenGL ES 3.0.
+   */
+  void drawCopiesInstanced(int mesh, int copies, int instances) {
+    gl.glDrawElementsInstanced(GlDevice.GL_TRIANGLES, copies * copyIndexCounts[mesh],
+        GlDevice.GL_UNSIGNED_SHORT, 0, instances);
+  }
+
+  /**
+   * Unbinds the vertex and index buffers, so code that still draws from client-side arrays (such
+   * as the distortion pass) isn't handed a buffer object by mistake.
+   */
+  void unbind() {
+    state.bindBuffer(GlDevice.GL_ARRAY_BUFFER, 0);
+    state.bindBuffer(GlDevice.GL_ELEMENT_ARRAY_BUFFER, 0);
+  }
+
+  /** Deletes the buffer objects. The context they were created on must still be current. */
+  void release() {
+    if (!created) {
+      return;
+    }
+    unbind();
+    gl.glDeleteBuffers(MESH_COUNT, vertexBuffers, 0);
+    gl.glDeleteBuffers(MESH_COUNT, indexBuffers, 0);
+    for (int i = 0; i < MESH_COUNT; i++) {
+      vertexBuffers[i] = 0;
+      indexBuffers[i] = 0;
+    }
+    created = false;
+  }
+}
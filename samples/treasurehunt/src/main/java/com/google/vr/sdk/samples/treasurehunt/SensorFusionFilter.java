@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Brings linear acceleration into the world frame: a head pose rotation with a compass fallback,
+ * and bias removal.
+ *
+ * <p>Android reports linear acceleration in device coordinates, which rotate with the user's head.
+ * The filter rotates each sample into the world frame used for rendering:
+ * <ul>
+ *   <li>The orientation comes from the head pose quaternion reported by {@code HeadTransform},
+ *   which is already gyro-stabilized and shares its frame with the camera. Once a head pose has
+ *   arrived, the accelerometer and magnetometer no longer affect the orientation.</li>
+ *   <li>Until a head pose is available (and when replaying version 1 traces, which have none) the
+ *   orientation falls back to a tilt-compensated compass built from low-passed accelerometer and
+ *   magnetometer readings. Its frame is magnetic north rather than the camera's.</li>
+ *   <li>While the integrator reports that the device is at rest, any residual world-frame
+ *   acceleration is sensor bias. It is tracked with a slow low-pass filter and subtracted from
+ *   later samples.</li>
+ * </ul>
+ *
+ * <p>All state lives in fixed-size float arrays and nothing is allocated per update. This class has
+ * no Android dependencies.
+ */
+public final class SensorFusionFilter {
+
+  // Low-pass weight of each new accelerometer / magnetometer reading.
+  private static final float GRAVITY_ALPHA = 0.1f;
+  private static final float MAGNETIC_ALPHA = 0.1f;
+  // Low-pass weight of each at-rest sample in the bias estimate.
+  private static final float BIAS_ALPHA = 0.02f;
+  // Bias estimates are clamped to this magnitude on each axis (m/s^2).
+  private static final float MAX_BIAS = 0.5f;
+
+  // Device-to-world rotation, row-major 3x3.
+  private final float[] rotation = new float[9];
+  private final float[] gravity = new float[3];
+  private final float[] magneticField = new float[3];
+  private final float[] bias = new float[3];
+
+  private boolean hasHeadPose;
+  private boolean hasGravity;
+  private boolean hasMagneticField;
+
+  public SensorFusionFilter() {
+    reset();
+  }
+
+  /** Forgets all orientation and bias state. */
+  public void reset() {
+    for (int i = 0; i < 9; i++) {
+      rotation[i] = (i % 4 == 0) ? 1f : 0f;
+    }
+    for (int i = 0; i < 3; i++) {
+      gravity[i] = 0f;
+      magneticField[i] = 0f;
+      bias[i] = 0f;
+    }
+    hasHeadPose = false;
+    hasGravity = false;
+    hasMagneticField = false;
+  }
+
+  /**
+   * Sets the head orientation, as reported by {@code HeadTransform.getQuaternion}.
+   *
+   * <p>That quaternion rotates world coordinates into head coordinates (it matches the head view
+   * matrix), so its transpose takes head coordinates back to the world.
+   */
+  public void setHeadRotation(float qx, float qy, float qz, float qw) {
+    float xx = qx * qx;
+    float yy = qy * qy;
+    float zz = qz * qz;
+    float xy = qx * qy;
+    float xz = qx * qz;
+    float yz = qy * qz;
+    float wx = qw * qx;
+    float wy = qw * qy;
+    float wz = qw * qz;
+
+    // Head-to-world rotation (transpose of the quaternion's matrix), composed with the device-to-
+    // head axis swap for landscape: head x = -device y, head y = device x, head z = device z.
+    float r00 = 1f - 2f * (yy + zz);
+    float r01 = 2f * (xy + wz);
+    float r02 = 2f * (xz - wy);
+    float r10 = 2f * (xy - wz);
+    float r11 = 1f - 2f * (xx + zz);
+    float r12 = 2f * (yz + wx);
+    float r20 = 2f * (xz + wy);
+    float r21 = 2f * (yz - wx);
+    float r22 = 1f - 2f * (xx + yy);
+
+    rotation[0] = r01;
+    rotation[1] = -r00;
+    rotation[2] = r02;
+    rotation[3] = r11;
+    rotation[4] = -r10;
+    rotation[5] = r12;
+    rotation[6] = r21;
+    rotation[7] = -r20;
+    rotation[8] = r22;
+    hasHeadPose = true;
+  }
+
+  /** Feeds an accelerometer reading (device frame, including gravity). */
+  public void updateGravity(float x, float y, float z) {
+    lowPass(gravity, x, y, z, hasGravity ? GRAVITY_ALPHA : 1f);
+    hasGravity = true;
+    if (!hasHeadPose) {
+      updateCompassRotation();
+    }
+  }
+
+  /** Feeds a magnetometer reading (device frame). */
+  public void updateMagneticField(float x, float y, float z) {
+    lowPass(magneticField, x, y, z, hasMagneticField ? MAGNETIC_ALPHA : 1f);
+    hasMagneticField = true;
+    if (!hasHeadPose) {
+      updateCompassRotation();
+    }
+  }
+
+  /**
+   * Rotates a device-frame linear acceleration sample into the world frame and removes the
+   * estimated bias.
+   *
+   * @param out Receives the world-frame acceleration (x, y, z) at {@code offset}.
+   */
+  public void toWorld(float ax, float ay, float az, float[] out, int offset) {
+    out[offset] = rotation[0] * ax + rotation[1] * ay + rotation[2] * az - bias[0];
+    out[offset + 1] = rotation[3] * ax + rotation[4] * ay + rotation[5] * az - bias[1];
+    out[offset + 2] = rotation[6] * ax + rotation[7] * ay + rotation[8] * az - bias[2];
+  }
+
+  /**
+   * Refines the bias estimate from a world-frame sample known to have been taken at rest.
+   *
+   * @param worldAcceleration A sample previously returned by {@link #toWorld}.
+   */
+  public void updateBias(float[] worldAcceleration, int offset) {
+    for (int i = 0; i < 3; i++) {
+      // The sample already has the current bias removed, so the residual is the correction.
+      float b = bias[i] + BIAS_ALPHA * worldAcceleration[offset + i];
+      bias[i] = Math.max(-MAX_BIAS, Math.min(MAX_BIAS, b));
+    }
+  }
+
+  /** Copies the device-to-world rotation (row-major 3x3) into {@code out} at {@code offset}. */
+  public void getRotation(float[] out, int offset) {
+    System.arraycopy(rotation, 0, out, offset, 9);
+  }
+
+  /** Copies the current bias estimate (x, y, z) into {@code out} at {@code offset}. */
+  public void getBias(float[] out, int offset) {
+    System.arraycopy(bias, 0, out, offset, 3);
+  }
+
+  public boolean hasHeadPose() {
+    return hasHeadPose;
+  }
+
+  /**
+   * Rebuilds the rotation from gravity and magnetic north, as {@code SensorManager
+   * .getRotationMatrix} does, but expressed in the OpenGL world frame (x east, y up, z south).
+   */
+  private void updateCompassRotation() {
+    if (!hasGravity || !hasMagneticField) {
+      return;
+    }
+    float gx = gravity[0];
+    float gy = gravity[1];
+    float gz = gravity[2];
+    float mx = magneticField[0];
+    float my = magneticField[1];
+    float mz = magneticField[2];
+
+    // East = magnetic x gravity.
+    float ex = my * gz - mz * gy;
+    float ey = mz * gx - mx * gz;
+    float ez = mx * gy - my * gx;
+    float eLength = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+    float gLength = (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+    if (eLength < 0.1f || gLength < 0.1f) {
+      // Free fall or close to magnetic north pole; keep the previous orientation.
+      return;
+    }
+    ex /= eLength;
+    ey /= eLength;
+    ez /= eLength;
+    gx /= gLength;
+    gy /= gLength;
+    gz /= gLength;
+    // North = gravity x east.
+    float nx = gy * ez - gz * ey;
+    float ny = gz * ex - gx * ez;
+    float nz = gx * ey - gy * ex;
+
+    rotation[0] = ex;
+    rotation[1] = ey;
+    rotation[2] = ez;
+    rotation[3] = gx;
+    rotation[4] = gy;
+    rotation[5] = gz;
+    rotation[6] = -nx;
+    rotation[7] = -ny;
+    rotation[8] = -nz;
+  }
+
+  private static void lowPass(float[] state, float x, float y, float z, float alpha) {
+    state[0] += alpha * (x - state[0]);
+    state[1] += alpha * (y - state[1]);
+    state[2] += alpha * (z - state[2]);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The sensor read-out drawn over the GvrView.
+ *
+ * <p>Values may be written from any thread at any rate. They are stored in a preallocated array and
+ * the HUD is republished at most once per display refresh by a single runnable posted to the
+ * animation queue. Only rows that changed since the last publish are touched, and each row is
+ * formatted into its own preallocated char buffer, so updates allocate nothing.
+ */
+final class SensorHud {
+
+  static final int GROUP_GRAVITY = 0;
+  static final int GROUP_LINEAR_ACCELERATION = 1;
+  static final int GROUP_ORIENTATION = 2;
+  static final int GROUP_POSITION = 3;
+
+  private static final int AXES = 3;
+  private static final int ROWS = 4 * AXES;
+
+  private static final int DECIMALS = 3;
+  // Label, sign, ten integer digits, decimal point and fraction.
+  private static final int MAX_VALUE_CHARS = 1 + 10 + 1 + DECIMALS;
+
+  private static final String[] LABELS = {
+      "gravX: ", "gravY: ", "gravZ: ",
+      "linAccX: ", "linAccY: ", "linAccZ: ",
+      "orientX: ", "orientY: ", "orientZ: ",
+      "posX: ", "posY: ", "posZ: ",
+  };
+
+  private final TextView[] views = new TextView[ROWS];
+  private final char[][] text = new char[ROWS][];
+  private final int[] labelLengths = new int[ROWS];
+  private final float[] values = new float[ROWS];
+
+  // One bit per row that has been written since the last publish. A non-zero mask means the
+  // publisher is already queued.
+  private final AtomicInteger dirtyRows = new AtomicInteger();
+
+  private final View anchor;
+
+  private final Runnable publisher =
+      new Runnable() {
+        @Override
+        public void run() {
+          publish();
+        }
+      };
+
+  SensorHud(Activity activity) {
+    int[] ids = {
+        R.id.gravX, R.id.gravY, R.id.gravZ,
+        R.id.linAccX, R.id.linAccY, R.id.linAccZ,
+        R.id.orientX, R.id.orientY, R.id.orientZ,
+        R.id.posX, R.id.posY, R.id.posZ,
+    };
+    for (int row = 0; row < ROWS; row++) {
+      views[row] = (TextView) activity.findViewById(ids[row]);
+      String label = LABELS[row];
+      labelLengths[row] = label.length();
+      text[row] = new char[label.length() + MAX_VALUE_CHARS];
+      label.getChars(0, label.length(), text[row], 0);
+    }
+    anchor = views[0];
+  }
+
+  /**
+   * Records the latest x, y and z values of a group. Safe to call from any thread.
+   *
+   * @param group One of the {@code GROUP_*} constants.
+   */
+  void update(int group, float x, float y, float z) {
+    int row = group * AXES;
+    values[row] = x;
+    values[row + 1] = y;
+    values[row + 2] = z;
+    markDirty(((1 << AXES) - 1) << row);
+  }
+
+  private void markDirty(int rows) {
+    // Always a successful compare-and-set, even when the rows are already pending, so that the
+    // values written above are released to the publisher's getAndSet. A publish that reads them
+    // while they are being written has already cleared the mask, so this queues another one, and
+    // the last values written are always shown.
+    while (true) {
+      int old = dirtyRows.get();
+      if (dirtyRows.compareAndSet(old, old | rows)) {
+        if (old == 0) {
+          anchor.postOnAnimation(publisher);
+        }
+        return;
+      }
+    }
+  }
+
+  /** Writes every dirty row to its view. Runs on the UI thread. */
+  private void publish() {
+    // Clearing the mask first means writes racing with this publish queue another one.
+    int rows = dirtyRows.getAndSet(0);
+    while (rows != 0) {
+      int row = Integer.numberOfTrailingZeros(rows);
+      rows &= rows - 1;
+      char[] buffer = text[row];
+      int end = formatFixed(values[row], DECIMALS, buffer, labelLengths[row]);
+      views[row].setText(buffer, 0, end);
+    }
+  }
+
+  /**
+   * Formats {@code value} as a fixed-point decimal into {@code buffer} without allocating.
+   *
+   * @return The index one past the last character written.
+   */
+  static int formatFixed(float value, int decimals, char[] buffer, int start) {
+    int pos = start;
+    if (Float.isNaN(value)) {
+      buffer[pos++] = 'N';
+      buffer[pos++] = 'a';
+      buffer[pos++] = 'N';
+      return pos;
+    }
+    if (value < 0f) {
+      buffer[pos++] = '-';
+      value = -value;
+    }
+
+    long scale = 1;
+    for (int i = 0; i < decimals; i++) {
+      scale *= 10;
+    }
+    // Clamp so that infinities and huge values still fit in the buffer.
+    long fixed = (long) Math.min(value * (double) scale + 0.5, 9999999999.0 * scale);
+    long integer = fixed / scale;
+    long fraction = fixed % scale;
+
+    int digitsStart = pos;
+    do {
+      buffer[pos++] = (char) ('0' + integer % 10);
+      integer /= 10;
+    } while (integer != 0);
+    for (int i = digitsStart, j = pos - 1; i < j; i++, j--) {
+      char c = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = c;
+    }
+
+    if (decimals > 0) {
+      buffer[pos++] = '.';
+      for (int i = decimals - 1; i >= 0; i--) {
+        buffer[pos + i] = (char) ('0' + fraction % 10);
+        fraction /= 10;
+      }
+      pos += decimals;
+    }
+    return pos;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Turns the stream of raw sensor samples into tracking state.
+ *
+ * <p>Head orientations, fed as {@link #TYPE_HEAD_ROTATION} pseudo-samples, and accelerometer and
+ * magnetometer readings feed the {@link SensorFusionFilter}, which rotates each linear acceleration
+ * sample into the world frame before the {@link PositionIntegrator} integrates it.
+ *
+ * <p>This is the single processing path for sensor data: the activity feeds it samples drained from
+ * the {@link SensorSampleRing} on the GL thread, and {@link SensorTraceReplayer} feeds it recorded
+ * traces on a desktop JVM. It has no Android dependencies, so the sensor types are mirrored here.
+ */
+public final class SensorProcessor implements SensorSampleRing.Consumer {
+
+  // Values of the matching android.hardware.Sensor.TYPE_* constants.
+  public static final int TYPE_ACCELEROMETER = 1;
+  public static final int TYPE_MAGNETIC_FIELD = 2;
+  public static final int TYPE_ORIENTATION = 3;
+  public static final int TYPE_LINEAR_ACCELERATION = 10;
+
+  /**
+   * Not an Android sensor type: a head orientation from {@code HeadTransform}, fed with
+   * {@link #offerHeadRotation}. Its x, y and z are those of the unit quaternion, with the sign
+   * chosen so that w is non-negative.
+   */
+  public static final int TYPE_HEAD_ROTATION = -1;
+
+  private final SensorFusionFilter fusionFilter = new SensorFusionFilter();
+  private final PositionIntegrator positionIntegrator = new PositionIntegrator();
+
+  // World-frame acceleration of the current sample.
+  private final float[] worldAcceleration = new float[3];
+
+  private long sampleCount;
+
+  @Override
+  public void onSensorSample(int sensorType, long timestampNanos, float x, float y, float z) {
+    sampleCount++;
+    if (sensorType == TYPE_LINEAR_ACCELERATION) {
+      // Use Linear Acceleration for Velocity and Position
+      fusionFilter.toWorld(x, y, z, worldAcceleration, 0);
+      positionIntegrator.integrate(
+          timestampNanos, worldAcceleration[0], worldAcceleration[1], worldAcceleration[2]);
+      if (positionIntegrator.isStationary()) {
+        fusionFilter.updateBias(worldAcceleration, 0);
+      }
+    } else if (sensorType == TYPE_HEAD_ROTATION) {
+      float w = (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+      fusionFilter.setHeadRotation(x, y, z, w);
+    } else if (sensorType == TYPE_ACCELEROMETER) {
+      fusionFilter.updateGravity(x, y, z);
+    } else if (sensorType == TYPE_MAGNETIC_FIELD) {
+      fusionFilter.updateMagneticField(x, y, z);
+    }
+  }
+
+  /**
+   * Hands a head orientation to {@code consumer} as a {@link #TYPE_HEAD_ROTATION} pseudo-sample.
+   * A processor uses it to rotate the samples that follow into the world frame, until the next
+   * one. Feeding it as a sample, rather than setting it on the processor, means a trace recorded
+   * from the samples a processor consumes replays with the same orientations in the same order.
+   *
+   * @param timestampNanos When the orientation applies, on the sensor timestamp clock.
+   * @see SensorFusionFilter#setHeadRotation
+   */
+  public static void offerHeadRotation(SensorSampleRing.Consumer consumer, long timestampNanos,
+      float qx, float qy, float qz, float qw) {
+    // q and -q are the same rotation; keep the one whose w can be recovered from x, y and z.
+    float sign = qw < 0f ? -1f : 1f;
+    consumer.onSensorSample(
+        TYPE_HEAD_ROTATION, timestampNanos, sign * qx, sign * qy, sign * qz);
+  }
+
+  /** Clears all tracking state. */
+  public void reset() {
+    fusionFilter.reset();
+    positionIntegrator.reset();
+    sampleCount = 0;
+  }
+
+  public SensorFusionFilter getFusionFilter() {
+    return fusionFilter;
+  }
+
+  public PositionIntegrator getPositionIntegrator() {
+    return positionIntegrator;
+  }
+
+  /** Copies the tracked position (x, y, z) into {@code out} at {@code offset}. */
+  public void getPosition(float[] out, int offset) {
+    positionIntegrator.getPosition(out, offset);
+  }
+
+  /** Returns the number of samples processed since the last reset. */
+  public long getSampleCount() {
+    return sampleCount;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Chooses sensor sampling rates from how much the user is moving.
+ *
+ * <p>While the user moves, the tracking sensors are sampled fast and delivered immediately. Once
+ * the linear acceleration has stayed small for a while the policy switches to a slow rate and lets
+ * sensors with a hardware FIFO batch their events, so a single wakeup drains a burst of samples.
+ * Any sample above the motion threshold switches straight back.
+ *
+ * <p>The thresholds are far enough apart, and the hold time long enough, that sensor noise doesn't
+ * make the policy flap between modes. This class has no Android dependencies.
+ *
+ * <p>Samples are fed on the sensor thread while the policy is reset and read wherever the sensors
+ * are registered, so every method is synchronized.
+ */
+final class SensorRatePolicy {
+
+  static final int MODE_MOVING = 0;
+  static final int MODE_STATIONARY = 1;
+
+  // Linear acceleration (m/s^2) above which the user is moving.
+  private static final float MOVING_THRESHOLD = 0.3f;
+  // Linear acceleration (m/s^2) below which a sample counts as still.
+  private static final float STILL_THRESHOLD = 0.15f;
+  // How long the user must stay still before the rates drop.
+  private static final long STILL_HOLD_NANOS = 2000000000L;
+
+  // 200 Hz for the motion sensors while moving; 50 Hz is plenty for the magnetometer.
+  private static final int MOVING_MOTION_PERIOD_US = 5000;
+  private static final int MOVING_SLOW_PERIOD_US = 20000;
+  // 25 Hz while still, just enough to notice when movement starts.
+  private static final int STATIONARY_PERIOD_US = 40000;
+  // Batched delivery while still. Motion onset is noticed at most this late.
+  private static final int STATIONARY_MAX_REPORT_LATENCY_US = 200000;
+
+  private int mode = MODE_MOVING;
+  private long stillSinceNanos = -1;
+
+  /**
+   * Feeds a linear acceleration sample.
+   *
+   * @return true if the mode changed and the sensors should be re-registered.
+   */
+  synchronized boolean onLinearAcceleration(long timestampNanos, float x, float y, float z) {
+    float magnitudeSq = x * x + y * y + z * z;
+
+    if (magnitudeSq > MOVING_THRESHOLD * MOVING_THRESHOLD) {
+      stillSinceNanos = -1;
+      return setMode(MODE_MOVING);
+    }
+
+    if (magnitudeSq < STILL_THRESHOLD * STILL_THRESHOLD) {
+      if (stillSinceNanos < 0) {
+        stillSinceNanos = timestampNanos;
+      } else if (timestampNanos - stillSinceNanos >= STILL_HOLD_NANOS) {
+        return setMode(MODE_STATIONARY);
+      }
+    } else {
+      // Between the thresholds: neither clearly moving nor still.
+      stillSinceNanos = -1;
+    }
+    return false;
+  }
+
+  private boolean setMode(int newMode) {
+    if (mode == newMode) {
+      return false;
+    }
+    mode = newMode;
+    return true;
+  }
+
+  /** Returns to the initial, moving mode. */
+  synchronized void reset() {
+    mode = MODE_MOVING;
+    stillSinceNanos = -1;
+  }
+
+  synchronized int getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns the sampling period for a sensor in the current mode.
+   *
+   * @param sensorType One of the {@code SensorProcessor.TYPE_*} constants.
+   */
+  synchronized int getSamplingPeriodUs(int sensorType) {
+    if (mode == MODE_STATIONARY) {
+      return STATIONARY_PERIOD_US;
+    }
+    return isMotionSensor(sensorType) ? MOVING_MOTION_PERIOD_US : MOVING_SLOW_PERIOD_US;
+  }
+
+  /**
+   * Returns the maximum delivery latency in the current mode.
+   *
+   * @param hasFifo Whether the sensor has a hardware FIFO to batch into.
+   */
+  synchronized int getMaxReportLatencyUs(boolean hasFifo) {
+    return mode == MODE_STATIONARY && hasFifo ? STATIONARY_MAX_REPORT_LATENCY_US : 0;
+  }
+
+  private static boolean isMotionSensor(int sensorType) {
+    return sensorType == SensorProcessor.TYPE_LINEAR_ACCELERATION
+        || sensorType == SensorProcessor.TYPE_ACCELEROMETER;
+  }
+}
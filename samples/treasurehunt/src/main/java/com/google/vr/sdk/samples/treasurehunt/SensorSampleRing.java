@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated single-producer/single-consumer ring of sensor samples.
+ *
+ * <p>The sensor thread publishes samples with {@link #offer} and the GL thread drains them once
+ * per frame with {@link #drain}. Samples are stored in parallel primitive arrays, so neither side
+ * allocates or takes a lock. Each side keeps a private copy of the other side's index and only
+ * re-reads the shared one when the ring looks full (or empty), which keeps the two threads from
+ * bouncing the same cache line on every sample.
+ *
+ * <p>When the consumer falls behind and the ring is full, new samples are dropped and counted
+ * rather than overwriting samples the consumer may be reading.
+ *
+ * <p>Event timestamps aren't guaranteed to be on the clock the samples are received on, so the
+ * consumer also tracks the offset between the two, see {@link #getClockOffsetNanos}.
+ */
+final class SensorSampleRing {
+
+  /** Receives samples drained from the ring, in the order they were offered. */
+  interface Consumer {
+    void onSensorSample(int sensorType, long timestampNanos, float x, float y, float z);
+  }
+
+  private static final int VALUES_PER_SAMPLE = 3;
+
+  private final int capacity;
+  private final int mask;
+
+  private final int[] types;
+  private final long[] timestamps;
+  private final long[] offerTimes;
+  private final float[] values;
+
+  // Written only by the producer; read by the consumer.
+  private final PaddedIndex writeIndex = new PaddedIndex();
+  // Written only by the consumer; read by the producer.
+  private final PaddedIndex readIndex = new PaddedIndex();
+
+  // Producer-local snapshot of readIndex.
+  private long cachedReadIndex;
+  // Consumer-local snapshot of writeIndex.
+  private long cachedWriteIndex;
+  // Consumer-local: the smallest offer time minus timestamp seen since the last reset.
+  private long clockOffsetNanos;
+  private boolean hasClockOffset;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param minCapacity Minimum number of samples the ring can hold. Rounded up to a power of two.
+   */
+  SensorSampleRing(int minCapacity) {
+    if (minCapacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + minCapacity);
+    }
+    int size = 1;
+    while (size < minCapacity) {
+      size <<= 1;
+    }
+    capacity = size;
+    mask = capacity - 1;
+    types = new int[capacity];
+    timestamps = new long[capacity];
+    offerTimes = new long[capacity];
+    values = new float[capacity * VALUES_PER_SAMPLE];
+  }
+
+  /**
+   * Publishes a sample. Must only be called from the producer thread.
+   *
+   * @param sensorType The {@code Sensor.TYPE_*} constant of the source sensor.
+   * @param timestampNanos The event timestamp.
+   * @param sample The event values; only the first three are stored.
+   * @return false if the ring was full and the sample was dropped.
+   */
+  boolean offer(int sensorType, long timestampNanos, float[] sample) {
+    return offer(sensorType, timestampNanos, 0, sample);
+  }
+
+  /**
+   * Publishes a sample, remembering when it was offered so the consumer can measure queueing
+   * latency. Must only be called from the producer thread.
+   *
+   * @param offerTimeNanos The time the sample was received, on the clock later passed to
+   *     {@link #drain(Consumer, LatencyHistogram, long)}.
+   */
+  boolean offer(int sensorType, long timestampNanos, long offerTimeNanos, float[] sample) {
+    long write = writeIndex.get();
+    if (write - cachedReadIndex >= capacity) {
+      cachedReadIndex = readIndex.get();
+      if (write - cachedReadIndex >= capacity) {
+        dropped.lazySet(dropped.get() + 1);
+        return false;
+      }
+    }
+
+    int slot = (int) write & mask;
+    types[slot] = sensorType;
+    timestamps[slot] = timestampNanos;
+    offerTimes[slot] = offerTimeNanos;
+    int base = slot * VALUES_PER_SAMPLE;
+    values[base] = sample[0];
+    values[base + 1] = sample.length > 1 ? sample[1] : 0f;
+    values[base + 2] = sample.length > 2 ? sample[2] : 0f;
+
+    // Release the slot contents before the new index becomes visible.
+    writeIndex.lazySet(write + 1);
+    return true;
+  }
+
+  /**
+   * Hands every published sample to {@code consumer}. Must only be called from the consumer
+   * thread.
+   *
+   * @return The number of samples drained.
+   */
+  int drain(Consumer consumer) {
+    return drain(consumer, null, 0);
+  }
+
+  /**
+   * Hands every published sample to {@code consumer} and records how long each one waited in the
+   * ring. Must only be called from the consumer thread.
+   *
+   * @param queueLatency Receives {@code nowNanos} minus the offer time of each sample that has one;
+   *     may be null.
+   * @return The number of samples drained.
+   */
+  int drain(Consumer consumer, LatencyHistogram queueLatency, long nowNanos) {
+    long read = readIndex.get();
+    if (read >= cachedWriteIndex) {
+      cachedWriteIndex = writeIndex.get();
+      if (read >= cachedWriteIndex) {
+        return 0;
+      }
+    }
+
+    long end = cachedWriteIndex;
+    for (long i = read; i < end; i++) {
+      int slot = (int) i & mask;
+      int base = slot * VALUES_PER_SAMPLE;
+      long offerTime = offerTimes[slot];
+      if (offerTime != 0) {
+        long offset = offerTime - timestamps[slot];
+        if (!hasClockOffset || offset < clockOffsetNanos) {
+          clockOffsetNanos = offset;
+          hasClockOffset = true;
+        }
+        if (queueLatency != null) {
+          queueLatency.record(nowNanos - offerTime);
+        }
+      }
+      consumer.onSensorSample(
+          types[slot], timestamps[slot], values[base], values[base + 1], values[base + 2]);
+    }
+
+    // Hand the slots back to the producer only after they have been consumed.
+    readIndex.lazySet(end);
+    return (int) (end - read);
+  }
+
+  /**
+   * Returns the offset from the event timestamp clock to the offer time clock, or 0 if no sample
+   * with an offer time has been drained since the last {@link #resetClockOffset}. Adding it to an
+   * event timestamp gives the time on the offer clock; subtracting it from an offer clock time
+   * gives the time on the event clock. Must only be called from the consumer thread.
+   *
+   * <p>It is the smallest offer time minus timestamp seen, so it includes the shortest delivery
+   * latency as well as the difference between the clocks. That makes times converted onto the
+   * event clock early by a fraction of a millisecond rather than late by a typical delivery.
+   */
+  long getClockOffsetNanos() {
+    return hasClockOffset ? clockOffsetNanos : 0;
+  }
+
+  /**
+   * Forgets the clock offset, e.g. when the sensors are re-registered and may have moved to another
+   * clock. Must only be called from the consumer thread.
+   */
+  void resetClockOffset() {
+    hasClockOffset = false;
+    clockOffsetNanos = 0;
+  }
+
+  /** Returns the number of samples dropped because the ring was full. */
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * An {@link AtomicLong} padded out to its own cache line so the producer and consumer indices
+   * never share one.
+   */
+  @SuppressWarnings({"serial", "unused"})
+  private static final class PaddedIndex extends AtomicLong {
+    long p1, p2, p3, p4, p5, p6, p7;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a binary sensor trace.
+ *
+ * <p>A trace is a fixed header followed by fixed-width little-endian records:
+ * <pre>
+ *   header: int magic, int version, int recordSize
+ *   record: int sensorType, long timestampNanos, float x, float y, float z
+ * </pre>
+ * Records are in the order the {@link SensorProcessor} processed them. Besides sensor events, from
+ * version 2 a trace holds the head orientation of every frame as a
+ * {@link SensorProcessor#TYPE_HEAD_ROTATION} record, written before the samples the frame drained.
+ * Version 1 traces have sensor events only, in the order they were received.
+ */
+final class SensorTraceFormat {
+
+  static final int MAGIC = 0x57535452; // "WSTR"
+  static final int VERSION = 2;
+  /** The oldest version that can still be replayed. */
+  static final int MIN_VERSION = 1;
+
+  static final int HEADER_SIZE = 3 * 4;
+  static final int RECORD_SIZE = 4 + 8 + 3 * 4;
+
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  private SensorTraceFormat() {}
+}
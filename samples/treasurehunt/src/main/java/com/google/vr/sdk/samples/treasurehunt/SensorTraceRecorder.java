@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the samples a {@link SensorProcessor} consumes to a binary trace that
+ * {@link SensorTraceReplayer} can play back.
+ *
+ * <p>Records are packed into a direct buffer and written out in 64 KB blocks, so recording costs a
+ * few stores per event plus an occasional write.
+ */
+final class SensorTraceRecorder {
+
+  private static final int BUFFER_RECORDS = 65536 / SensorTraceFormat.RECORD_SIZE;
+
+  private final FileOutputStream stream;
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+
+  private long recordCount;
+  private boolean closed;
+
+  SensorTraceRecorder(File file) throws IOException {
+    stream = new FileOutputStream(file);
+    channel = stream.getChannel();
+    buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * SensorTraceFormat.RECORD_SIZE);
+    buffer.order(SensorTraceFormat.BYTE_ORDER);
+
+    buffer.putInt(SensorTraceFormat.MAGIC);
+    buffer.putInt(SensorTraceFormat.VERSION);
+    buffer.putInt(SensorTraceFormat.RECORD_SIZE);
+  }
+
+  /**
+   * Appends one event to the trace.
+   *
+   * @param values The event values; missing components are recorded as zero.
+   */
+  void record(int sensorType, long timestampNanos, float[] values) throws IOException {
+    record(sensorType, timestampNanos, values[0], values.length > 1 ? values[1] : 0f,
+        values.length > 2 ? values[2] : 0f);
+  }
+
+  /** Appends one sample, e.g. one drained from a {@link SensorSampleRing}, to the trace. */
+  synchronized void record(int sensorType, long timestampNanos, float x, float y, float z)
+      throws IOException {
+    if (closed) {
+      return;
+    }
+    if (buffer.remaining() < SensorTraceFormat.RECORD_SIZE) {
+      flush();
+    }
+    buffer.putInt(sensorType);
+    buffer.putLong(timestampNanos);
+    buffer.putFloat(x);
+    buffer.putFloat(y);
+    buffer.putFloat(z);
+    recordCount++;
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** Writes any buffered records and closes the file. */
+  synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      flush();
+    } finally {
+      stream.close();
+    }
+  }
+
+  synchronized long getRecordCount() {
+    return recordCount;
+  }
+}
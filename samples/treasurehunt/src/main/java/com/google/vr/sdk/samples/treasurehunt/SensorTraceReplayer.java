@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a trace written by {@link SensorTraceRecorder}.
+ *
+ * <p>The trace is memory-mapped and fed record by record to a {@link SensorSampleRing.Consumer},
+ * normally a {@link SensorProcessor}. Traces hold the samples the processor consumed, head
+ * rotations included, in the order it consumed them, so a recorded field session makes the same
+ * processor calls on replay as it did live. Version 1 traces have no head rotations, so they
+ * replay through the compass fallback of {@link SensorFusionFilter} instead. Runs on a desktop
+ * JVM:
+ * <pre>
+ *   java com.google.vr.sdk.samples.treasurehunt.SensorTraceReplayer trace.bin [iterations]
+ * </pre>
+ */
+public final class SensorTraceReplayer {
+
+  // Largest window mapped at once; a whole number of records so none straddles two windows.
+  private static final long MAX_WINDOW_RECORDS = (1 << 30) / SensorTraceFormat.RECORD_SIZE;
+
+  private final FileChannel channel;
+  private final RandomAccessFile file;
+  private final long recordCount;
+
+  public SensorTraceReplayer(File trace) throws IOException {
+    file = new RandomAccessFile(trace, "r");
+    channel = file.getChannel();
+
+    long size = channel.size();
+    if (size < SensorTraceFormat.HEADER_SIZE) {
+      close();
+      throw new IOException("Truncated sensor trace: " + trace);
+    }
+    MappedByteBuffer header =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, SensorTraceFormat.HEADER_SIZE);
+    header.order(SensorTraceFormat.BYTE_ORDER);
+    int magic = header.getInt();
+    int version = header.getInt();
+    int recordSize = header.getInt();
+    if (magic != SensorTraceFormat.MAGIC
+        || version < SensorTraceFormat.MIN_VERSION
+        || version > SensorTraceFormat.VERSION
+        || recordSize != SensorTraceFormat.RECORD_SIZE) {
+      close();
+      throw new IOException(
+          "Not a version " + SensorTraceFormat.VERSION + " sensor trace: " + trace);
+    }
+    // A trailing partial record means the recorder was killed mid-write; ignore it.
+    recordCount = (size - SensorTraceFormat.HEADER_SIZE) / SensorTraceFormat.RECORD_SIZE;
+  }
+
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Feeds every record in the trace to {@code consumer}, in recorded order.
+   *
+   * @return The number of records replayed.
+   */
+  public long replay(SensorSampleRing.Consumer consumer) throws IOException {
+    long done = 0;
+    while (done < recordCount) {
+      long count = Math.min(MAX_WINDOW_RECORDS, recordCount - done);
+      MappedByteBuffer window = channel.map(
+          FileChannel.MapMode.READ_ONLY,
+          SensorTraceFormat.HEADER_SIZE + done * SensorTraceFormat.RECORD_SIZE,
+          count * SensorTraceFormat.RECORD_SIZE);
+      window.order(SensorTraceFormat.BYTE_ORDER);
+      for (long i = 0; i < count; i++) {
+        int type = window.getInt();
+        long timestamp = window.getLong();
+        float x = window.getFloat();
+        float y = window.getFloat();
+        float z = window.getFloat();
+        consumer.onSensorSample(type, timestamp, x, y, z);
+      }
+      done += count;
+    }
+    return done;
+  }
+
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /**
+   * Replays a trace through a {@link SensorProcessor} and reports throughput and the final
+   * tracked position.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: SensorTraceReplayer <trace> [iterations]");
+      System.exit(1);
+    }
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+    SensorTraceReplayer replayer = new SensorTraceReplayer(new File(args[0]));
+    SensorProcessor processor = new SensorProcessor();
+    float[] position = new float[3];
+    try {
+      for (int i = 0; i < iterations; i++) {
+        processor.reset();
+        long start = System.nanoTime();
+        long samples = replayer.replay(processor);
+        long elapsed = System.nanoTime() - start;
+        processor.getPosition(position, 0);
+        System.out.printf("%d samples in %.2f ms (%.1f M samples/s), position %.3f %.3f %.3f%n",
+            samples, elapsed / 1e6, samples * 1e3 / Math.max(elapsed, 1),
+            position[0], position[1], position[2]);
+      }
+    } finally {
+      replayer.close();
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Support for drawing both eyes in a single pass with OpenGL ES 3.0 instancing.
+ *
+ * <p>Every mesh is drawn once with two instances, one per eye. The vertex shader picks the eye's
+ * matrices from uniform arrays by {@code gl_InstanceID} and squeezes the clip-space position into
+ * that eye's half of a viewport covering both eyes. Without clip planes in ES 3.0, geometry that
+ * crosses the edge of an eye's viewport is cut off in the fragment shader instead, from a varying
+ * that plays the part of four clip distances.
+ *
+ * <p>The single-pass shaders are generated from the sample's ES 2.0 shaders by
+ * {@link #translateVertexShader} and {@link #translateFragmentShader}, so there is one copy of the
+ * lighting and grid code.
+ *
+ * <p>This class has no Android dependencies.
+ */
+final class SinglePassStereo {
+
+  static final int EYE_COUNT = 2;
+
+  /** The uniform the single-pass vertex shader adds, set from {@link #computeViewports}. */
+  static final String EYE_VIEWPORT_UNIFORM = "u_EyeViewport";
+  private static final String EYE_CLIP_VARYING = "v_EyeClip";
+  // The original main function, which the generated one calls.
+  private static final String SHADER_MAIN = "stereoMain";
+
+  private static final Pattern VERSION = Pattern.compile("#version[^\\n]*\\n");
+  private static final Pattern MAIN = Pattern.compile("\\bvoid\\s+main\\s*\\(\\s*(void)?\\s*\\)");
+  private static final Pattern ATTRIBUTE = Pattern.compile("\\battribute\\b");
+  private static final Pattern VARYING = Pattern.compile("\\bvarying\\b");
+  private static final Pattern FRAG_COLOR = Pattern.compile("\\bgl_FragColor\\b");
+  private static final Pattern TEXTURE_2D = Pattern.compile("\\btexture2D\\s*\\(");
+
+  private SinglePassStereo() {}
+
+  /** Returns whether the current context is OpenGL ES 3.0 or later. */
+  static boolean isContextSupported(GlDevice gl) {
+    String version = gl.glGetString(GlDevice.GL_VERSION);
+    return version != null
+        && version.startsWith("OpenGL ES ")
+        && !version.startsWith("OpenGL ES 2");
+  }
+
+  /** Returns the name of the uniform array holding the per-eye values of {@code uniform}. */
+  static String perEye(String uniform) {
+    return uniform + "_PerEye";
+  }
+
+  /**
+   * Turns an ES 2.0 vertex shader into an ES 3.0 one that draws instance {@code i} into eye
+   * {@code i}.
+   *
+   * @param perEyeUniforms Uniforms that differ between the eyes. Each becomes an array named
+   *     {@link #perEye}, indexed by the instance.
+   */
+  static String translateVertexShader(String source, String... perEyeUniforms) {
+    String shader = toEs3(source);
+    shader = ATTRIBUTE.matcher(shader).replaceAll("in");
+    shader = VARYING.matcher(shader).replaceAll("out");
+    for (String uniform : perEyeUniforms) {
+      Pattern declaration =
+          Pattern.compile("uniform\\s+(\\w+\\s+)?(\\w+)\\s+" + Pattern.quote(uniform) + "\\s*;");
+      Matcher matcher = declaration.matcher(shader);
+      if (!matcher.find()) {
+        throw new IllegalArgumentException("No declaration of uniform " + uniform);
+      }
+      String precision = matcher.group(1) == null ? "" : matcher.group(1);
+      String array = perEye(uniform);
+      shader = matcher.replaceFirst(Matcher.quoteReplacement(
+          "uniform " + precision + matcher.group(2) + " " + array + "[" + EYE_COUNT + "];\n"
+          + "#define " + uniform + " " + array + "[gl_InstanceID]"));
+    }
+    return shader
+        + "\n"
+        + "uniform vec4 " + EYE_VIEWPORT_UNIFORM + "[" + EYE_COUNT + "];\n"
+        + "out vec4 " + EYE_CLIP_VARYING + ";\n"
+        + "\n"
+        + "void main() {\n"
+        + "  " + SHADER_MAIN + "();\n"
+        + "  // Non-negative inside this eye's view, like clip distances for its four edges.\n"
+        + "  " + EYE_CLIP_VARYING + " = gl_Position.wwww\n"
+        + "      + gl_Position.xxyy * vec4(1.0, -1.0, 1.0, -1.0);\n"
+        + "  vec4 viewport = " + EYE_VIEWPORT_UNIFORM + "[gl_InstanceID];\n"
+        + "  gl_Position.xy = gl_Position.xy * viewport.xy + viewport.zw * gl_Position.w;\n"
+        + "}\n";
+  }
+
+  /** Turns an ES 2.0 fragment shader into one for a {@link #translateVertexShader} program. */
+  static String translateFragmentShader(String source) {
+    String shader = toEs3(source);
+    shader = VARYING.matcher(shader).replaceAll("in");
+    shader = TEXTURE_2D.matcher(shader).replaceAll("texture(");
+    shader = FRAG_COLOR.matcher(shader).replaceAll("o_FragColor");
+    return shader
+        + "\n"
+        + "in vec4 " + EYE_CLIP_VARYING + ";\n"
+        + "\n"
+        + "void main() {\n"
+        + "  // Outside this eye's viewport, i.e. in the other eye's.\n"
+        + "  if (any(lessThan(" + EYE_CLIP_VARYING + ", vec4(0.0)))) {\n"
+        + "    discard;\n"
+        + "  }\n"
+        + "  " + SHADER_MAIN + "();\n"
+        + "}\n";
+  }
+
+  private static String toEs3(String source) {
+    String shader = VERSION.matcher(source).replaceFirst("");
+    Matcher main = MAIN.matcher(shader);
+    if (!main.find()) {
+      throw new IllegalArgumentException("Shader has no main function");
+    }
+    shader = main.replaceFirst("void " + SHADER_MAIN + "()");
+    String header = "#version 300 es\n";
+    if (FRAG_COLOR.matcher(shader).find()) {
+      header += "out mediump vec4 o_FragColor;\n";
+    }
+    return header + shader;
+  }
+
+  /**
+   * Computes the viewport covering both eyes and where each eye lies within it.
+   *
+   * @param left The left eye's viewport: x, y, width and height.
+   * @param right The right eye's viewport, likewise.
+   * @param union Receives x, y, width and height of the combined viewport.
+   * @param eyeViewports Receives, for each eye, the scale and offset that map the eye's normalized
+   *     device coordinates into the combined viewport's: x scale, y scale, x offset, y offset.
+   */
+  static void computeViewports(int[] left, int[] right, int[] union, float[] eyeViewports) {
+    int x = Math.min(left[0], right[0]);
+    int y = Math.min(left[1], right[1]);
+    int width = Math.max(left[0] + left[2], right[0] + right[2]) - x;
+    int height = Math.max(left[1] + left[3], right[1] + right[3]) - y;
+    union[0] = x;
+    union[1] = y;
+    union[2] = width;
+    union[3] = height;
+    setEyeViewport(left, x, y, width, height, eyeViewports, 0);
+    setEyeViewport(right, x, y, width, height, eyeViewports, 4);
+  }
+
+  private static void setEyeViewport(
+      int[] eye, int x, int y, int width, int height, float[] out, int offset) {
+    out[offset] = (float) eye[2] / width;
+    out[offset + 1] = (float) eye[3] / height;
+    out[offset + 2] = (2f * (eye[0] - x) + eye[2]) / width - 1f;
+    out[offset + 3] = (2f * (eye[1] - y) + eye[3]) / height - 1f;
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Owns the tracking sensors: their registration, delivery thread and lifecycle.
+ *
+ * <p>Nothing is set up until the first frame after {@link #resume}: {@link #onFrame} looks the
+ * sensors up, starts the delivery thread and registers the listeners then, so a cold launch doesn't
+ * pay for any of it before the first frame. {@link #pause} unregisters everything, and the next
+ * frame after {@link #resume} registers again.
+ *
+ * <p>Each registration starts a new session. Events arriving in the first {@link #WARM_UP_NANOS}
+ * of a session are discarded, because sensors commonly deliver stale or unsettled readings right
+ * after they are enabled, and {@link #getSession} changes so the consumer knows to reset its
+ * integration state rather than integrating across the gap.
+ *
+ * <p>Accepted events are published to a {@link SensorSampleRing} on a dedicated high-priority
+ * thread.
+ */
+final class TrackingSensors implements SensorEventListener {
+
+  private static final String TAG = "TrackingSensors";
+
+  static final long WARM_UP_NANOS = 100000000L;
+
+  // Delivery latencies outside [0, this] mean the sensor stamps events with another clock.
+  private static final long MAX_DELIVERY_LATENCY_NANOS = 1000000000L;
+
+  // Records every sample fed to the consumer given to traced() to a trace in the app's external
+  // files directory, for replay with SensorTraceReplayer.
+  private static final boolean RECORD_SENSOR_TRACE = false;
+
+  // Shows the raw sensor readings on the HUD in addition to the tracked position.
+  private static final boolean SHOW_RAW_SENSOR_DATA = false;
+
+  private static final int[] SENSOR_TYPES = {
+      Sensor.TYPE_LINEAR_ACCELERATION,
+      Sensor.TYPE_ACCELEROMETER,
+      Sensor.TYPE_MAGNETIC_FIELD,
+      Sensor.TYPE_ORIENTATION,
+  };
+
+  private final Context context;
+  private final SensorSampleRing ring;
+  private final SensorHud hud;
+
+  private final SensorRatePolicy ratePolicy = new SensorRatePolicy();
+
+  // Sensor event timestamp to onSensorChanged, recorded on the sensor thread. Only recorded where
+  // event timestamps are on the elapsedRealtimeNanos clock, which not every device uses.
+  private final LatencyHistogram deliveryLatency = new LatencyHistogram("sensor delivery");
+
+  private final Runnable applyRates =
+      new Runnable() {
+        @Override
+        public void run() {
+          registerSensors();
+        }
+      };
+
+  // Created lazily on the first frame. Guarded by this.
+  private SensorManager sensorManager;
+  private Sensor[] sensors;
+  // Sensor callbacks run here rather than on the main looper, away from layout and input.
+  private HandlerThread thread;
+  private volatile Handler handler;
+  private boolean registered;
+
+  // Set between resume and pause; registration waits for the next frame.
+  private volatile boolean active;
+  // On the elapsedRealtimeNanos clock. Written under this, read on the sensor thread.
+  private volatile long warmUpEndNanos;
+  private volatile int session;
+
+  private volatile SensorTraceRecorder recorder;
+
+  TrackingSensors(Context context, SensorSampleRing ring, SensorHud hud) {
+    this.context = context;
+    this.ring = ring;
+    this.hud = hud;
+  }
+
+  /** Allows the sensors to be registered on the next frame. */
+  void resume() {
+    active = true;
+  }
+
+  /** Unregisters the sensors until the next {@link #resume}. */
+  synchronized void pause() {
+    active = false;
+    if (!registered) {
+      return;
+    }
+    registered = false;
+    handler.removeCallbacks(applyRates);
+    sensorManager.unregisterListener(this);
+  }
+
+  /** Stops the delivery thread and finishes any trace being recorded. */
+  synchronized void shutdown() {
+    pause();
+    if (thread != null) {
+      thread.quitSafely();
+      thread = null;
+      handler = null;
+    }
+    closeTrace();
+  }
+
+  /**
+   * Registers the sensors if they are wanted and not registered yet. Called at the start of every
+   * frame; cheap when there is nothing to do.
+   */
+  void onFrame() {
+    if (active && !registered) {
+      start();
+    }
+  }
+
+  /**
+   * Returns a number that changes every time the sensors are (re-)registered. Samples from a new
+   * session must not be integrated together with older state.
+   */
+  int getSession() {
+    return session;
+  }
+
+  LatencyHistogram getDeliveryLatency() {
+    return deliveryLatency;
+  }
+
+  private synchronized void start() {
+    if (!active || registered) {
+      return;
+    }
+    if (thread == null) {
+      initialize();
+    }
+    ratePolicy.reset();
+    warmUpEndNanos = SystemClock.elapsedRealtimeNanos() + WARM_UP_NANOS;
+    session++;
+    registered = true;
+    registerSensors();
+  }
+
+  private void initialize() {
+    if (sensorManager == null) {
+      sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+      sensors = new Sensor[SENSOR_TYPES.length];
+      for (int i = 0; i < SENSOR_TYPES.length; i++) {
+        sensors[i] = sensorManager.getDefaultSensor(SENSOR_TYPES[i]);
+      }
+      if (RECORD_SENSOR_TRACE) {
+        openTrace();
+      }
+    }
+    thread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  /**
+   * (Re-)registers the tracking sensors at the rates chosen by the sensor rate policy. Events are
+   * delivered on the sensor thread.
+   */
+  private synchronized void registerSensors() {
+    if (!registered) {
+      return;
+    }
+    sensorManager.unregisterListener(this);
+    for (Sensor sensor : sensors) {
+      if (sensor == null) {
+        continue;
+      }
+      boolean hasFifo = sensor.getFifoMaxEventCount() > 0;
+      sensorManager.registerListener(this, sensor,
+          ratePolicy.getSamplingPeriodUs(sensor.getType()),
+          ratePolicy.getMaxReportLatencyUs(hasFifo),
+          handler);
+    }
+  }
+
+  @Override
+  public void onSensorChanged(SensorEvent event) {
+    // Event timestamps may be on another clock than elapsedRealtimeNanos, so the warm-up is timed
+    // by when events arrive.
+    long receivedNanos = SystemClock.elapsedRealtimeNanos();
+    if (receivedNanos < warmUpEndNanos) {
+      return;
+    }
+    long latencyNanos = receivedNanos - event.timestamp;
+    if (latencyNanos >= 0 && latencyNanos <= MAX_DELIVERY_LATENCY_NANOS) {
+      deliveryLatency.record(latencyNanos);
+    }
+
+    int type = event.sensor.getType();
+    float[] values = event.values;
+
+    if (SHOW_RAW_SENSOR_DATA) {
+      showOnHud(type, values);
+    }
+
+    // Hand the sample to the GL thread, which integrates it in onNewFrame.
+    ring.offer(type, event.timestamp, receivedNanos, values);
+
+    if (type == Sensor.TYPE_LINEAR_ACCELERATION
+        && ratePolicy.onLinearAcceleration(event.timestamp, values[0], values[1], values[2])) {
+      // Don't change registrations from inside the listener callback.
+      Handler sensorHandler = handler;
+      if (sensorHandler != null) {
+        sensorHandler.post(applyRates);
+      }
+    }
+  }
+
+  @Override
+  public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+  /**
+   * Returns a consumer that records each sample to the sensor trace, if one is being recorded,
+   * before handing it to {@code consumer}. Feed everything the processor consumes through it,
+   * head rotations included, so that the trace replays in the order the samples were processed.
+   * Must only be used on the GL thread.
+   */
+  SensorSampleRing.Consumer traced(final SensorSampleRing.Consumer consumer) {
+    if (!RECORD_SENSOR_TRACE) {
+      return consumer;
+    }
+    return new SensorSampleRing.Consumer() {
+      @Override
+      public void onSensorSample(int sensorType, long timestamp, float x, float y, float z) {
+        SensorTraceRecorder trace = recorder;
+        if (trace != null) {
+          try {
+            trace.record(sensorType, timestamp, x, y, z);
+          } catch (IOException e) {
+            Log.e(TAG, "Sensor trace recording failed", e);
+            closeTrace();
+          }
+        }
+        consumer.onSensorSample(sensorType, timestamp, x, y, z);
+      }
+    };
+  }
+
+  private void showOnHud(int type, float[] values) {
+    if (type == Sensor.TYPE_ACCELEROMETER) {
+      hud.update(SensorHud.GROUP_GRAVITY, values[0], values[1], values[2]);
+    } else if (type == Sensor.TYPE_LINEAR_ACCELERATION) {
+      hud.update(SensorHud.GROUP_LINEAR_ACCELERATION, values[0], values[1], values[2]);
+    } else if (type == Sensor.TYPE_ORIENTATION) {
+      hud.update(SensorHud.GROUP_ORIENTATION, values[0], values[1], values[2]);
+    }
+  }
+
+  private void openTrace() {
+    File trace = new File(
+        context.getExternalFilesDir(null), "sensors-" + System.currentTimeMillis() + ".trace");
+    try {
+      recorder = new SensorTraceRecorder(trace);
+      Log.i(TAG, "Recording sensor trace to " + trace);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to record sensor trace to " + trace, e);
+    }
+  }
+
+  private void closeTrace() {
+    SensorTraceRecorder trace = recorder;
+    if (trace == null) {
+      return;
+    }
+    recorder = null;
+    try {
+      trace.close();
+      Log.i(TAG, "Recorded " + trace.getRecordCount() + " sensor events");
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to finish sensor trace", e);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * The treasure cubes in the scene.
+ *
+ * <p>Positions are kept in one primitive array per coordinate rather than one object per
+ * treasure, so that per-frame passes over every treasure, such as culling, walk memory in order and
+ * the field allocates nothing after construction. All treasures share the same mesh, bounding
+ * radius and spin, so a treasure is only its position; its model matrix is a translation to that
+ * position times the shared spin.
+ *
+ * <p>Treasures are only added, never removed, so an index stays valid for the life of the field.
+ * The field isn't thread-safe: the renderer owns it on the GL thread, and moves treasures there
+ * between frames.
+ *
+ * <p>This class has no Android dependencies.
+ */
+final class TreasureField {
+
+  private final float[] x;
+  private final float[] y;
+  private final float[] z;
+  private final float radius;
+  private int count;
+
+  /**
+   * @param capacity The most treasures the field will hold.
+   * @param radius The radius of a sphere around a treasure's position that holds all of it, in
+   *     any orientation.
+   */
+  TreasureField(int capacity, float radius) {
+    x = new float[capacity];
+    y = new float[capacity];
+    z = new float[capacity];
+    this.radius = radius;
+  }
+
+  /**
+   * Returns the distance from the origin to the furthest of the vertices of a mesh, for use as the
+   * field's radius.
+   */
+  static float boundingRadius(float[] coords) {
+    float max = 0;
+    for (int i = 0; i < coords.length; i += 3) {
+      max = Math.max(max,
+          coords[i] * coords[i] + coords[i + 1] * coords[i + 1] + coords[i + 2] * coords[i + 2]);
+    }
+    return (float) Math.sqrt(max);
+  }
+
+  /**
+   * Adds a treasure.
+   *
+   * @return The new treasure's index.
+   * @throws IllegalStateException if the field is full.
+   */
+  int add(float treasureX, float treasureY, float treasureZ) {
+    if (count == x.length) {
+      throw new IllegalStateException("Treasure field is full: " + count);
+    }
+    int index = count++;
+    setPosition(index, treasureX, treasureY, treasureZ);
+    return index;
+  }
+
+  void setPosition(int index, float treasureX, float treasureY, float treasureZ) {
+    x[index] = treasureX;
+    y[index] = treasureY;
+    z[index] = treasureZ;
+  }
+
+  int getCount() {
+    return count;
+  }
+
+  int getCapacity() {
+    return x.length;
+  }
+
+  float getX(int index) {
+    return x[index];
+  }
+
+  float getY(int index) {
+    return y[index];
+  }
+
+  float getZ(int index) {
+    return z[index];
+  }
+
+  float getRadius() {
+    return radius;
+  }
+
+  /**
+   * Collects the treasures that may be visible in either of two frusta.
+   *
+   * @param other A second frustum, such as the other eye's, or null.
+   * @param visible Receives the indices of the visible treasures, in index order. Must hold
+   *     {@link #getCapacity} entries.
+   * @return The number of visible treasures.
+   */
+  int cull(Frustum frustum, Frustum other, int[] visible) {
+    int visibleCount = 0;
+    for (int i = 0; i < count; i++) {
+      float treasureX = x[i];
+      float treasureY = y[i];
+      float treasureZ = z[i];
+      if (frustum.intersectsSphere(treasureX, treasureY, treasureZ, radius)
+          || (other != null && other.intersectsSphere(treasureX, treasureY, treasureZ, radius))) {
+        visible[visibleCount++] = i;
+      }
+    }
+    return visibleCount;
+  }
+}
@@ -23,174 +23,219 @@ import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
 
+import android.app.ActivityManager;
 import android.content.Context;
-import android.hardware.*;
+import android.content.pm.ConfigurationInfo;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
-import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.util.Log;
-import android.widget.TextView;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.concurrent.Callable;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
 /**
  * A Google VR sample application.
  * </p><p>
- * The TreasureHunt scene consists of a planar ground grid and a floating
- * "treasure" cube. When the user looks at the cube, the cube will turn gold.
+ * The TreasureHunt scene consists of a planar ground grid and floating
+ * "treasure" cubes. When the user looks at a cube, the cube will turn gold.
  * While gold, the user can activate the Carboard trigger, which will in turn
  * randomly reposition the cube.
  */
-public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoRenderer, SensorEventListener {
-
-  protected float[] modelCube;
-  protected float[] modelPosition;
+public class TreasureHuntActivity extends GvrActivity
+    implements GvrView.StereoRenderer, GvrView.Renderer {
 
   private static final String TAG = "TreasureHuntActivity";
 
-  private static final float Z_NEAR = 0.1f;
-  private static final float Z_FAR = 100.0f;
+  // Draws both eyes in one instanced pass where OpenGL ES 3.0 is available, instead of running
+  // the whole scene once per eye.
+  private static final boolean SINGLE_PASS_STEREO = true;
 
-  private static final float CAMERA_Z = 0.01f;
-  private static final float TIME_DELTA = 0.3f;
+  // In release builds, GL errors are only checked on one frame in this many.
+  private static final int GL_ERROR_SAMPLE_INTERVAL = 90;
 
   private static final float YAW_LIMIT = 0.12f;
   private static final float PITCH_LIMIT = 0.12f;
 
-  private static final int COORDS_PER_VERTEX = 3;
+  // The number of treasure cubes. The first appears in front of the user and plays the sound; the
+  // others are scattered up to TREASURE_FIELD_RADIUS away.
+  private static final int TREASURE_COUNT = 1;
+  private static final float TREASURE_FIELD_RADIUS = 50.0f;
+  private static final int SOUND_TREASURE = 0;
 
-  // We keep the light always position just above the user.
-  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
+  private static final String SOUND_FILE = "cube_sound.wav";
 
-  // Convenience vector for extracting the position from a matrix via multiplication.
-  private static final float[] POS_MATRIX_MULTIPLY_VEC = {0, 0, 0, 1.0f};
+  // The floor: tiles of 2.5 under the user, doubling in size every ring out to 160, which covers
+  // FrameMath.Z_FAR wherever the user is within a snapping step. Grid lines are 0.1 wide, 10 apart.
+  private static final float FLOOR_FINEST_TILE = 2.5f;
+  private static final int FLOOR_HALF_TILES = 8;
+  private static final int FLOOR_LEVELS = 4;
+  private static final float GRID_SPACING = 10.0f;
+  private static final float GRID_LINE_WIDTH = 0.1f;
+  // Texels along a side of a grid cell: about a pixel each, seen from the user's height.
+  private static final int GRID_TEXTURE_SIZE = 256;
 
-  private static final float MIN_MODEL_DISTANCE = 3.0f;
-  private static final float MAX_MODEL_DISTANCE = 7.0f;
+  // Few enough that loading doesn't compete with the GL and sensor threads.
+  private static final int ASSET_LOADER_THREADS = 2;
 
-  private static final String SOUND_FILE = "cube_sound.wav";
+  // The range the eye render targets' resolution is scaled in, to keep up with the display.
+  private static final float MIN_RESOLUTION_SCALE = 0.5f;
+  private static final float MAX_RESOLUTION_SCALE = 1.0f;
+
+  // Replaced on every pause, in the app's external files directory.
+  private static final String FRAME_TIMINGS_FILE = "frame-timings.bin";
+  // Frames whose phase times are kept, and captured when frames judder: about two seconds.
+  private static final int RECENT_FRAMES = 120;
 
   private final float[] lightPosInEyeSpace = new float[4];
 
-  private FloatBuffer floorVertices;
-  private FloatBuffer floorColors;
-  private FloatBuffer floorNormals;
-
-  private FloatBuffer cubeVertices;
-  private FloatBuffer cubeColors;
-  private FloatBuffer cubeFoundColors;
-  private FloatBuffer cubeNormals;
-
-  private int cubeProgram;
-  private int floorProgram;
-
-  private int cubePositionParam;
-  private int cubeNormalParam;
-  private int cubeColorParam;
-  private int cubeModelParam;
-  private int cubeModelViewParam;
-  private int cubeModelViewProjectionParam;
-  private int cubeLightPosParam;
-
-  private int floorPositionParam;
-  private int floorNormalParam;
-  private int floorColorParam;
-  private int floorModelParam;
-  private int floorModelViewParam;
-  private int floorModelViewProjectionParam;
-  private int floorLightPosParam;
-
-  private float[] camera;
+  // All GL calls go through the device.
+  private final GlDevice gl = new GlesDevice();
+  // Drops GL calls that wouldn't change anything. All drawing goes through it.
+  private final GlStateCache glState = new GlStateCache(gl);
+  // Treasure and floor vertex data, resident on the GPU.
+  private final SceneGeometry geometry = new SceneGeometry(gl, glState);
+  private final FloorClipmap floorClipmap =
+      new FloorClipmap(FLOOR_FINEST_TILE, FLOOR_HALF_TILES, FLOOR_LEVELS, GRID_SPACING);
+  private final GridTexture gridTexture = new GridTexture(gl, glState);
+
+  // Owned by the GL thread once it starts.
+  private final TreasureField treasures =
+      new TreasureField(TREASURE_COUNT, TreasureField.boundingRadius(WorldLayoutData.CUBE_COORDS));
+  private final float[] treasureSpin = new float[16];
+  // Where a treasure is being moved to.
+  private final float[] treasurePosition = new float[3];
+  private final GazePicker gazePicker = new GazePicker(treasures, YAW_LIMIT, PITCH_LIMIT);
+  private final TreasureRenderer treasureRenderer =
+      new TreasureRenderer(glState, geometry, treasures);
+  private final FloorRenderer floorRenderer = new FloorRenderer(glState, geometry, gridTexture);
+  private final Frustum[] eyeFrustums = {new Frustum(), new Frustum()};
+
+  // Reads shaders, packs meshes and decodes audio off the GL thread, from onCreate on.
+  private final AssetLoader assetLoader = new AssetLoader(ASSET_LOADER_THREADS);
+  private AssetLoader.Asset<PackedMesh[]> meshes;
+  private AssetLoader.Asset<ByteBuffer> gridTexels;
+  private AssetLoader.Asset<String> vertexSource;
+  private AssetLoader.Asset<String> gridSource;
+  private AssetLoader.Asset<String> passthroughSource;
+  private AssetLoader.Asset<String> treasureSource;
+  // The single-pass translations of the four sources above, in that order; null without ES 3.0.
+  private AssetLoader.Asset<String[]> singlePassSources;
+
+  // Linked programs from earlier runs, so that startup can skip compiling shaders.
+  private ProgramCache programCache;
+  private TreasureRenderer.Program treasureProgram;
+  private FloorRenderer.Program floorProgram;
+
+  // Per-frame GL error checks; every frame in debug builds.
+  private final GlDiagnostics glDiagnostics = new GlDiagnostics(gl,
+      BuildConfig.DEBUG ? GlDiagnostics.MODE_FULL : GlDiagnostics.MODE_SAMPLED,
+      GL_ERROR_SAMPLE_INTERVAL);
+
+  // Lowers the resolution when frames run late. Used on the GL thread.
+  private ResolutionGovernor resolutionGovernor;
+  private float resolutionScale = MAX_RESOLUTION_SCALE;
+  private long frameStartNanos;
+  private long lastFrameStartNanos;
+  // Where each frame's time goes on the GL thread.
+  private final FrameTimings frameTimings = new FrameTimings(RECENT_FRAMES);
+  // Counts dropped frames and judder, and captures the frame timings when it comes in bursts.
+  private FramePacingWatchdog pacingWatchdog;
+
+  // Whether GvrView hands us whole frames, so that both eyes can be drawn in one pass.
+  private boolean singlePassStereo;
+  // Null when the context can't draw both eyes in one pass; each eye is then drawn in turn.
+  private TreasureRenderer.Program stereoTreasureProgram;
+  private FloorRenderer.Program stereoFloorProgram;
+
+  // Per-eye values for the single-pass programs, eye after eye.
+  private final int[] stereoViewport = new int[4];
+  private final int[] leftViewport = new int[4];
+  private final int[] rightViewport = new int[4];
+  private final float[] eyeViewports = new float[4 * SinglePassStereo.EYE_COUNT];
+  private final float[] eyeViews = new float[16 * SinglePassStereo.EYE_COUNT];
+  private final float[] eyePerspectives = new float[16 * SinglePassStereo.EYE_COUNT];
+  private final float[] eyeViewProjections = new float[16 * SinglePassStereo.EYE_COUNT];
+  private final float[] eyeModelViews = new float[16 * SinglePassStereo.EYE_COUNT];
+  private final float[] eyeModelViewProjections = new float[16 * SinglePassStereo.EYE_COUNT];
+  private final float[] eyeLightPositions = new float[3 * SinglePassStereo.EYE_COUNT];
+
   private float[] view;
-  private float[] headView;
+  private final float[] viewProjection = new float[16];
   private float[] modelViewProjection;
   private float[] modelView;
   private float[] modelFloor;
 
-  private float[] tempPosition;
+
+  // Per-frame snapshots, filled alternately in onNewFrame.
+  private final FrameState[] frameStates = {new FrameState(), new FrameState()};
+  private int nextFrameState;
+  // The snapshot the current frame is drawn from. GL thread only.
+  private FrameState frame;
+  // The same snapshot, published for the trigger handler on the UI thread.
+  private volatile FrameState publishedFrame;
   private float[] headRotation;
 
-  private float objectDistance = MAX_MODEL_DISTANCE / 2.0f;
   private float floorDepth = 20f;
 
   private Vibrator vibrator;
 
   private GvrAudioEngine gvrAudioEngine;
-  private volatile int soundId = GvrAudioEngine.INVALID_ID;
+  // Set on the GL thread once the sound has loaded.
+  private int soundId = GvrAudioEngine.INVALID_ID;
 
   // Android Tracking Data & Sensors
-  private static final float NS2S = 1.0f / 1000000000.0f;
-  float[] last_values = null;
-  float[] velocity = null;
-  float[] position = null;
-  float[] acceleration = null;
-  long last_timestamp = 0;
-
-  private SensorManager sensorManager;
-  private Sensor accSensor;
-  private Sensor gravSensor;
-  private Sensor magSensor;
-  private Sensor orientSensor;
+  // Enough for several frames of all four sensors at their fastest rates.
+  private static final int SENSOR_RING_CAPACITY = 1024;
+
+  // Sensor thread -> GL thread handoff. Everything below it is only touched on the GL thread.
+  private final SensorSampleRing sensorRing = new SensorSampleRing(SENSOR_RING_CAPACITY);
+  private final SensorProcessor sensorProcessor = new SensorProcessor();
+  private final PosePredictor posePredictor = new PosePredictor();
+  // The processor, or a consumer that also records what it is fed to the sensor trace.
+  private SensorSampleRing.Consumer sensorInput;
+  // Tracked position, predicted to the display time of the current frame.
+  float[] position = new float[3];
+
+  private TrackingSensors trackingSensors;
+  // The sensor session whose samples are being integrated.
+  private int sensorSession;
   private WifiManager wifiSensor;
 
-  float[] linAccMeasurements = new float[3];
-  float[] gravMeasurements = new float[3];
-  float[] magMeasurements = new float[3];
-  float[] orientMeasurements = new float[3];
+  // onSensorChanged to consumption in onNewFrame, recorded on the GL thread.
+  private final LatencyHistogram sensorQueueLatency = new LatencyHistogram("sensor queue");
+  // Discards samples left over from a previous sensor session.
+  private final SensorSampleRing.Consumer discardSamples =
+      new SensorSampleRing.Consumer() {
+        @Override
+        public void onSensorSample(int sensorType, long timestamp, float x, float y, float z) {}
+      };
+
   float[] headRotArray = new float[3];
 
   private float incrementer = 0.5f;
 
-  /**
-   * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
-   *
-   * @param type The type of shader we will be creating.
-   * @param resId The resource ID of the raw text file about to be turned into a shader.
-   * @return The shader object handler.
-   */
-  private int loadGLShader(int type, int resId) {
-    String code = readRawTextFile(resId);
-    int shader = GLES20.glCreateShader(type);
-    GLES20.glShaderSource(shader, code);
-    GLES20.glCompileShader(shader);
-
-    // Get the compilation status.
-    final int[] compileStatus = new int[1];
-    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
-
-    // If the compilation failed, delete the shader.
-    if (compileStatus[0] == 0) {
-      Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-      GLES20.glDeleteShader(shader);
-      shader = 0;
-    }
-
-    if (shader == 0) {
-      throw new RuntimeException("Error creating shader.");
-    }
-
-    return shader;
-  }
+  private SensorHud sensorHud;
 
   /**
-   * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
+   * Checks if we've had an error inside of OpenGL ES, and if so what that error is. Only for
+   * one-off setup; per-frame checks go through {@link #glDiagnostics}.
    *
    * @param label Label to report in case of error.
    */
-  private static void checkGLError(String label) {
+  private void checkGLError(String label) {
     int error;
-    while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+    while ((error = gl.glGetError()) != GlDevice.GL_NO_ERROR) {
       Log.e(TAG, label + ": glError " + error);
       throw new RuntimeException(label + ": glError " + error);
     }
@@ -205,106 +250,128 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
     super.onCreate(savedInstanceState);
 
     initializeGvrView();
+    float refreshRate = getWindowManager().getDefaultDisplay().getRefreshRate();
+    long periodNanos = (long) (1e9 / refreshRate);
+    resolutionGovernor =
+        new ResolutionGovernor(periodNanos, MIN_RESOLUTION_SCALE, MAX_RESOLUTION_SCALE);
+    pacingWatchdog = new FramePacingWatchdog(periodNanos, frameTimings, RECENT_FRAMES);
 
-    modelCube = new float[16];
-    camera = new float[16];
     view = new float[16];
     modelViewProjection = new float[16];
     modelView = new float[16];
     modelFloor = new float[16];
-    tempPosition = new float[4];
-    // Model first appears directly in front of user.
-    modelPosition = new float[] {0.0f, 0.0f, -MAX_MODEL_DISTANCE / 2.0f};
+    Matrix.setIdentityM(treasureSpin, 0);
+    // The first treasure appears directly in front of user.
+    gazePicker.update(treasures.add(0.0f, 0.0f, -FrameMath.MAX_MODEL_DISTANCE / 2.0f));
+    while (treasures.getCount() < TREASURE_COUNT) {
+      FrameMath.scatteredPosition(TREASURE_FIELD_RADIUS, treasurePosition);
+      moveTreasure(treasures.add(0, 0, 0),
+          treasurePosition[0], treasurePosition[1], treasurePosition[2]);
+    }
     headRotation = new float[4];
-    headView = new float[16];
+    programCache = new ProgramCache(gl, new File(getCacheDir(), "programs"));
     vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 
-    // Initalize Sensors
-    sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-    accSensor = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
-    gravSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-    magSensor = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-    orientSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION);
-
-    sensorManager.registerListener(this, accSensor, SensorManager.SENSOR_DELAY_NORMAL);
-    sensorManager.registerListener(this, gravSensor, SensorManager.SENSOR_DELAY_NORMAL);
-    sensorManager.registerListener(this, magSensor, SensorManager.SENSOR_DELAY_NORMAL);
-    sensorManager.registerListener(this, orientSensor, SensorManager.SENSOR_DELAY_NORMAL);
+    // Sensors are registered lazily, on the first frame after onResume.
+    trackingSensors = new TrackingSensors(this, sensorRing, sensorHud);
+    sensorInput = trackingSensors.traced(sensorProcessor);
 
     wifiSensor = (WifiManager) getSystemService(Context.WIFI_SERVICE);
 
     // Initialize 3D audio engine.
     gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
-  }
-
-  private void outputSensorDataToScreen(SensorEvent event) {
-    boolean log = false;
-
-    if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
 
-    } else if (event.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
-      System.arraycopy(event.values, 0, linAccMeasurements, 0, 3);
-
-      if (log) {
-        TextView xLabel = (TextView) findViewById(R.id.linAccX);
-        TextView yLabel = (TextView) findViewById(R.id.linAccY);
-        TextView zLabel = (TextView) findViewById(R.id.linAccZ);
-
-        xLabel.setText("LinAcc X: " + linAccMeasurements[0]);
-        yLabel.setText("LinAcc Y: " + linAccMeasurements[1]);
-        zLabel.setText("LinAcc Z: " + linAccMeasurements[2]);
-      }
+    startLoadingAssets();
+  }
 
+  /**
+   * Starts loading everything the renderer needs, so that it is ready or nearly so by the time the
+   * surface is created. Shaders come first, since no frame can be drawn without them; the meshes
+   * next; the sound last, as it only has to start playing eventually.
+   */
+  private void startLoadingAssets() {
+    vertexSource = loadShaderSource("light_vertex", R.raw.light_vertex);
+    gridSource = loadShaderSource("grid_fragment", R.raw.grid_fragment);
+    passthroughSource = loadShaderSource("passthrough_fragment", R.raw.passthrough_fragment);
+    final AssetLoader.Asset<String> treasureVertex =
+        loadShaderSource("treasure_vertex", R.raw.treasure_vertex);
+    treasureSource = assetLoader.load("treasure shader", AssetLoader.PRIORITY_FIRST_FRAME,
+        new Callable<String>() {
+          @Override
+          public String call() {
+            return TreasureRenderer.defineBatchSize(treasureVertex.getResult());
+          }
+        },
+        treasureVertex);
+    singlePassSources = null;
+    if (singlePassStereo) {
+      singlePassSources = assetLoader.load("single-pass shaders", AssetLoader.PRIORITY_FIRST_FRAME,
+          new Callable<String[]>() {
+            @Override
+            public String[] call() {
+              return new String[] {
+                SinglePassStereo.translateVertexShader(
+                    vertexSource.getResult(), FloorRenderer.PER_EYE_UNIFORMS),
+                SinglePassStereo.translateFragmentShader(gridSource.getResult()),
+                SinglePassStereo.translateFragmentShader(passthroughSource.getResult()),
+                SinglePassStereo.translateVertexShader(
+                    treasureSource.getResult(), TreasureRenderer.PER_EYE_UNIFORMS)
+              };
+            }
+          },
+          vertexSource, gridSource, passthroughSource, treasureSource);
+    }
 
-      TextView xPosLabel= (TextView)findViewById(R.id.posX);
-      TextView yPosLabel= (TextView)findViewById(R.id.posY);
-      TextView zPosLabel= (TextView)findViewById(R.id.posZ);
+    meshes = assetLoader.load("meshes", AssetLoader.PRIORITY_SCENE,
+        new Callable<PackedMesh[]>() {
+          @Override
+          public PackedMesh[] call() {
+            return SceneGeometry.packMeshes(floorClipmap);
+          }
+        });
+    gridTexels = assetLoader.load("grid texture", AssetLoader.PRIORITY_SCENE,
+        new Callable<ByteBuffer>() {
+          @Override
+          public ByteBuffer call() {
+            return GridTexture.bake(GRID_TEXTURE_SIZE, GRID_LINE_WIDTH / GRID_SPACING);
+          }
+        });
 
-      if (position != null) {
-        xPosLabel.setText("posX: 0");
-        yPosLabel.setText("posY: " + position[0]);
-        zPosLabel.setText("posZ: " + position[2]);
-      }
-    } else if (event.sensor.getType() == Sensor.TYPE_ORIENTATION) {
-      System.arraycopy(event.values, 0, orientMeasurements, 0, 3);
-    } else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-      System.arraycopy(event.values, 0, magMeasurements, 0, 3);
-    }
+    // Decoding the sound file takes a while; playback starts whenever it is done.
+    AssetLoader.Asset<Integer> sound = assetLoader.load("sound", AssetLoader.PRIORITY_BACKGROUND,
+        new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            gvrAudioEngine.preloadSoundFile(SOUND_FILE);
+            return gvrAudioEngine.createSoundObject(SOUND_FILE);
+          }
+        });
+    assetLoader.runOnGlThread(sound,
+        new AssetLoader.GlCallback<Integer>() {
+          @Override
+          public void onLoaded(Integer id) {
+            // Start spatial audio playback of SOUND_FILE at the treasure's position. The soundId
+            // handle allows for repositioning the sound object whenever the treasure moves.
+            soundId = id;
+            gvrAudioEngine.setSoundObjectPosition(soundId, treasures.getX(SOUND_TREASURE),
+                treasures.getY(SOUND_TREASURE), treasures.getZ(SOUND_TREASURE));
+            gvrAudioEngine.playSound(soundId, true /* looped playback */);
+          }
+        });
   }
 
-  @Override
-  public void onSensorChanged(SensorEvent sensorEvent) {
-    // Output Sensor Data to Screen
-    outputSensorDataToScreen(sensorEvent);
-
-    if (sensorEvent.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
-      // Use Linear Acceleration for Velocity and Position
-      if (last_values != null) {
-        float dt = (sensorEvent.timestamp - last_timestamp) * NS2S;
-      /* aashna
-      for(int i = 0; i < 3; ++i){
-        velocity[i] += (sensorEvent.values[i] + last_values[i]) / 2.0 * dt;
-        position[i] += velocity[i] * dt;
-      }
-      */
-        if (Math.abs(sensorEvent.values[2]) > 0.5f) {
-          acceleration[2] += sensorEvent.values[2];
-          velocity[2] += (acceleration[2] * dt);
-          position[2] += (velocity[2] * dt + (acceleration[2] / 2.0f * dt * dt));
-        }
-      } else {
-        last_values = new float[3];
-        velocity = new float[3];
-        position = new float[3];
-        acceleration = new float[3];
-        velocity[0] = velocity[1] = velocity[2] = 0f;
-        position[0] = position[1] = position[2] = 0f;
-        acceleration[0] = acceleration[1] = acceleration[2] = 0f;
-      }
-
-      System.arraycopy(sensorEvent.values, 0, last_values, 0, 3);
-      last_timestamp = sensorEvent.timestamp;
-    }
+  private AssetLoader.Asset<String> loadShaderSource(String name, final int resId) {
+    return assetLoader.load(name, AssetLoader.PRIORITY_FIRST_FRAME,
+        new Callable<String>() {
+          @Override
+          public String call() throws IOException {
+            String source = readRawTextFile(resId);
+            if (source == null) {
+              throw new IOException("Unable to read shader " + resId);
+            }
+            return source;
+          }
+        });
   }
 
   /**
@@ -314,40 +381,179 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
    */
   @Override
   public void onNewFrame(HeadTransform headTransform) {
+    frameStartNanos = SystemClock.elapsedRealtimeNanos();
+    // A late start shows the last frame ran long, so a capture ends with that frame.
+    if (pacingWatchdog.onFrameStart(frameStartNanos)) {
+      writeJankCapture();
+    }
+    frameTimings.startFrame(frameStartNanos);
+    frameTimings.start(FrameTimings.NEW_FRAME);
+    glDiagnostics.onFrameStart();
+    // The distortion pass ran since the last frame and left GL in an unknown state.
+    glState.invalidate();
+    // Uploads and other GL work for assets that finished loading since the last frame.
+    assetLoader.runGlTasks();
+    FrameState next = frameStates[nextFrameState];
+    nextFrameState ^= 1;
+    headTransform.getHeadView(next.headView, 0);
+    headTransform.getQuaternion(headRotation, 0);
+    //headTransform.getEulerAngles(headRotArray, 0); //aashna
+
+    // Consume everything the sensor thread has published since the last frame, rotating it into
+    // the world frame with the current head orientation.
+    trackingSensors.onFrame();
+    int session = trackingSensors.getSession();
+    if (session != sensorSession) {
+      // The sensors were (re-)registered. Start tracking afresh rather than integrating across
+      // the pause.
+      sensorSession = session;
+      sensorRing.drain(discardSamples);
+      sensorRing.resetClockOffset();
+      sensorProcessor.reset();
+      posePredictor.reset();
+    }
+    // The head rotation goes in as a sample, timed on the event clock, so a recorded trace has it
+    // ahead of the samples it rotates, as here.
+    SensorProcessor.offerHeadRotation(sensorInput,
+        frameStartNanos - sensorRing.getClockOffsetNanos(),
+        headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
+    boolean hasNewSamples =
+        sensorRing.drain(sensorInput, sensorQueueLatency, frameStartNanos) > 0;
+
+    // Render from where the head will be when this frame is displayed, not where it was at the
+    // last sensor sample. The frame start is on the elapsed realtime clock, which event timestamps
+    // needn't be on, so the display time is moved onto the event clock before predicting.
+    long displayNanos =
+        posePredictor.onFrameStart(frameStartNanos, sensorRing.getClockOffsetNanos());
+    posePredictor.predict(sensorProcessor.getPositionIntegrator(), displayNanos, position, 0);
+    if (hasNewSamples) {
+      sensorHud.update(SensorHud.GROUP_POSITION, position[0], position[1], position[2]);
+    }
+
     setCubeRotation();
 
-    // Build the camera matrix and apply it to the ModelView.
-    Matrix.setLookAtM(camera, 0,
-            position[0], 0f, CAMERA_Z,
-            position[0], 0f, 0f,
-            0.0f, 1.0f, 0.0f); // position[1]
-            // eye, center, up
+    // The floor and camera move with the user.
+    FrameMath.followUser(floorClipmap, floorDepth, position, modelFloor, next.camera);
 
-    headTransform.getHeadView(headView, 0);
-    // Update the 3d audio engine with the most recent head rotation.
-    headTransform.getQuaternion(headRotation, 0);
-    //headTransform.getEulerAngles(headRotArray, 0); //aashna
+    // Everything the eyes need, so that drawing repeats none of it and can't see it change.
+    FrameMath.getLightPosInWorldSpace(next.lightPosInWorldSpace);
+    System.arraycopy(treasureSpin, 0, next.treasureSpin, 0, 16);
+    System.arraycopy(modelFloor, 0, next.modelFloor, 0, 16);
+    next.gazedTreasure = gazePicker.pick(next.headView, next.camera);
+    frame = next;
+    publishedFrame = next;
 
+    // Update the 3d audio engine with the most recent head rotation.
     gvrAudioEngine.setHeadRotation(
             headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
     // Regular update call to GVR audio engine.
+    frameTimings.start(FrameTimings.AUDIO_UPDATE);
     gvrAudioEngine.update();
+    frameTimings.stop(FrameTimings.AUDIO_UPDATE);
 
-    checkGLError("onReadyToDraw");
+    glDiagnostics.check("onReadyToDraw");
+    frameTimings.stop(FrameTimings.NEW_FRAME);
   }
 
-  @Override
-  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+  /**
+   * Logs how much of the motion-to-photon budget the sensor path is using, and any GL errors.
+   */
+  private void logDiagnostics() {
+    StringBuilder summary = new StringBuilder();
+    trackingSensors.getDeliveryLatency().appendSummary(summary);
+    summary.append("; ");
+    sensorQueueLatency.appendSummary(summary);
+    summary.append("; dropped=").append(sensorRing.getDroppedCount());
+    Log.i(TAG, summary.toString());
+
+    summary.setLength(0);
+    glDiagnostics.appendSummary(summary);
+    summary.append("; ");
+    glState.appendSummary(summary);
+    summary.append("; ");
+    treasureRenderer.appendSummary(summary);
+    summary.append("; ");
+    gazePicker.appendSummary(summary);
+    summary.append("; ");
+    programCache.appendSummary(summary);
+    summary.append("; ");
+    resolutionGovernor.appendSummary(summary);
+    Log.i(TAG, summary.toString());
+
+    summary.setLength(0);
+    frameTimings.appendSummary(summary);
+    Log.i(TAG, summary.toString());
+
+    summary.setLength(0);
+    pacingWatchdog.appendSummary(summary);
+    Log.i(TAG, summary.toString());
+  }
 
+  /** Writes the watchdog's capture of a burst of judder off the GL thread. */
+  private void writeJankCapture() {
+    assetLoader.load("jank capture", AssetLoader.PRIORITY_BACKGROUND,
+        new Callable<Void>() {
+          @Override
+          public Void call() {
+            File directory = getExternalFilesDir(null);
+            if (directory == null) {
+              pacingWatchdog.discardCapture();
+              return null;
+            }
+            File file = new File(directory, "jank-" + System.currentTimeMillis() + ".frames");
+            try {
+              pacingWatchdog.writeCapture(file);
+              Log.i(TAG, "Captured a burst of judder to " + file);
+            } catch (IOException e) {
+              Log.e(TAG, "Unable to write judder capture to " + file, e);
+            }
+            return null;
+          }
+        });
+  }
+
+  /** Writes the frame timings where they can be pulled off the device. */
+  private void writeFrameTimings() {
+    File directory = getExternalFilesDir(null);
+    if (directory == null) {
+      return;
+    }
+    File file = new File(directory, FRAME_TIMINGS_FILE);
+    try {
+      frameTimings.writeSnapshot(file);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to write frame timings to " + file, e);
+    }
+  }
+
+  /** Returns whether the device supports OpenGL ES 3.0, which the single-pass mode needs. */
+  private boolean isEs3Supported() {
+    ActivityManager activityManager =
+        (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+    ConfigurationInfo info = activityManager.getDeviceConfigurationInfo();
+    return info != null && info.reqGlEsVersion >= 0x30000;
   }
 
   public void initializeGvrView() {
     setContentView(R.layout.common_ui);
+    sensorHud = new SensorHud(this);
 
     GvrView gvrView = (GvrView) findViewById(R.id.gvr_view);
-    gvrView.setEGLConfigChooser(8, 8, 8, 8, 16, 8);
 
-    gvrView.setRenderer(this);
+    // An OpenGL ES 3.0 context runs the ES 2.0 shaders unchanged, and can also cache program
+    // binaries and draw in a single pass. The version must be set before the config chooser,
+    // which asks for configs that can render the version in effect when it is created.
+    boolean es3 = isEs3Supported();
+    if (es3) {
+      gvrView.setEGLContextClientVersion(3);
+    }
+    gvrView.setEGLConfigChooser(8, 8, 8, 8, 16, 8);
+    singlePassStereo = SINGLE_PASS_STEREO && es3;
+    if (singlePassStereo) {
+      gvrView.setRenderer((GvrView.Renderer) this);
+    } else {
+      gvrView.setRenderer((GvrView.StereoRenderer) this);
+    }
     gvrView.setTransitionViewEnabled(true);
     gvrView.setOnCardboardBackButtonListener(
         new Runnable() {
@@ -362,7 +568,9 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
   @Override
   public void onPause() {
     gvrAudioEngine.pause();
-    sensorManager.unregisterListener(this);
+    trackingSensors.pause();
+    logDiagnostics();
+    writeFrameTimings();
     super.onPause();
   }
 
@@ -370,11 +578,21 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
   public void onResume() {
     super.onResume();
     gvrAudioEngine.resume();
+    trackingSensors.resume();
+  }
+
+  @Override
+  public void onDestroy() {
+    trackingSensors.shutdown();
+    assetLoader.shutdown();
+    super.onDestroy();
   }
 
   @Override
   public void onRendererShutdown() {
     Log.i(TAG, "onRendererShutdown");
+    geometry.release();
+    gridTexture.release();
   }
 
   @Override
@@ -385,140 +603,100 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
   /**
    * Creates the buffers we use to store information about the 3D world.
    *
-   * <p>OpenGL doesn't use Java arrays, but rather needs data in a format it can understand.
-   * Hence we use ByteBuffers.
+   * <p>The vertex data is uploaded into buffer objects once, rather than handed to OpenGL from
+   * client memory on every draw.
    *
    * @param config The EGL configuration used when creating the surface.
    */
   @Override
   public void onSurfaceCreated(EGLConfig config) {
     Log.i(TAG, "onSurfaceCreated");
-    GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-    ByteBuffer bbVertices = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COORDS.length * 4);
-    bbVertices.order(ByteOrder.nativeOrder());
-    cubeVertices = bbVertices.asFloatBuffer();
-    cubeVertices.put(WorldLayoutData.CUBE_COORDS);
-    cubeVertices.position(0);
-
-    ByteBuffer bbColors = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COLORS.length * 4);
-    bbColors.order(ByteOrder.nativeOrder());
-    cubeColors = bbColors.asFloatBuffer();
-    cubeColors.put(WorldLayoutData.CUBE_COLORS);
-    cubeColors.position(0);
-
-    ByteBuffer bbFoundColors =
-        ByteBuffer.allocateDirect(WorldLayoutData.CUBE_FOUND_COLORS.length * 4);
-    bbFoundColors.order(ByteOrder.nativeOrder());
-    cubeFoundColors = bbFoundColors.asFloatBuffer();
-    cubeFoundColors.put(WorldLayoutData.CUBE_FOUND_COLORS);
-    cubeFoundColors.position(0);
-
-    ByteBuffer bbNormals = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_NORMALS.length * 4);
-    bbNormals.order(ByteOrder.nativeOrder());
-    cubeNormals = bbNormals.asFloatBuffer();
-    cubeNormals.put(WorldLayoutData.CUBE_NORMALS);
-    cubeNormals.position(0);
-
-    // make a floor
-    ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COORDS.length * 4);
-    bbFloorVertices.order(ByteOrder.nativeOrder());
-    floorVertices = bbFloorVertices.asFloatBuffer();
-    floorVertices.put(WorldLayoutData.FLOOR_COORDS);
-    floorVertices.position(0);
-
-    ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_NORMALS.length * 4);
-    bbFloorNormals.order(ByteOrder.nativeOrder());
-    floorNormals = bbFloorNormals.asFloatBuffer();
-    floorNormals.put(WorldLayoutData.FLOOR_NORMALS);
-    floorNormals.position(0);
-
-    ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COLORS.length * 4);
-    bbFloorColors.order(ByteOrder.nativeOrder());
-    floorColors = bbFloorColors.asFloatBuffer();
-    floorColors.put(WorldLayoutData.FLOOR_COLORS);
-    floorColors.position(0);
-
-    int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-    int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-    int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-    cubeProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(cubeProgram, vertexShader);
-    GLES20.glAttachShader(cubeProgram, passthroughShader);
-    GLES20.glLinkProgram(cubeProgram);
-    GLES20.glUseProgram(cubeProgram);
-
-    checkGLError("Cube program");
-
-    cubePositionParam = GLES20.glGetAttribLocation(cubeProgram, "a_Position");
-    cubeNormalParam = GLES20.glGetAttribLocation(cubeProgram, "a_Normal");
-    cubeColorParam = GLES20.glGetAttribLocation(cubeProgram, "a_Color");
-
-    cubeModelParam = GLES20.glGetUniformLocation(cubeProgram, "u_Model");
-    cubeModelViewParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVMatrix");
-    cubeModelViewProjectionParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVP");
-    cubeLightPosParam = GLES20.glGetUniformLocation(cubeProgram, "u_LightPos");
-
-    checkGLError("Cube program params");
-
-    floorProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(floorProgram, vertexShader);
-    GLES20.glAttachShader(floorProgram, gridShader);
-    GLES20.glLinkProgram(floorProgram);
-    GLES20.glUseProgram(floorProgram);
+    // A new context: nothing the state cache knew still holds.
+    glState.reset();
+    gl.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
+
+    // Runs again on a fresh context after the old one is lost, so the buffers are re-uploaded too,
+    // as soon as the meshes are packed; until then frames are drawn empty.
+    geometry.onContextLost();
+    assetLoader.runOnGlThread(meshes,
+        new AssetLoader.GlCallback<PackedMesh[]>() {
+          @Override
+          public void onLoaded(PackedMesh[] packed) {
+            if (!geometry.isCreated()) {
+              geometry.create(packed);
+            }
+          }
+        });
+    gridTexture.onContextLost();
+    assetLoader.runOnGlThread(gridTexels,
+        new AssetLoader.GlCallback<ByteBuffer>() {
+          @Override
+          public void onLoaded(ByteBuffer texels) {
+            if (!gridTexture.isCreated()) {
+              gridTexture.create(texels);
+            }
+          }
+        });
+
+    // Linked programs die with the context too, but the cache usually saves rebuilding them. The
+    // sources were requested in onCreate, and have usually loaded by now.
+    programCache.onContextCreated();
+    String passthrough = passthroughSource.getResult();
+    treasureProgram = new TreasureRenderer.Program(
+        gl, programCache.getProgram(treasureSource.getResult(), passthrough), glState, false);
+
+    checkGLError("Treasure program");
+
+    floorProgram = new FloorRenderer.Program(
+        gl, programCache.getProgram(vertexSource.getResult(), gridSource.getResult()), glState,
+        false);
 
     checkGLError("Floor program");
 
-    floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-    floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-    floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
-    floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
-
-    floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-    floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-    floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
-
-    checkGLError("Floor program params");
-
-    Matrix.setIdentityM(modelFloor, 0);
-    Matrix.translateM(modelFloor, 0, 0, -floorDepth, 0); // Floor appears below user.
-
-    // Avoid any delays during start-up due to decoding of sound files.
-    new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                // Start spatial audio playback of SOUND_FILE at the model postion. The returned
-                //soundId handle is stored and allows for repositioning the sound object whenever
-                // the cube position changes.
-                gvrAudioEngine.preloadSoundFile(SOUND_FILE);
-                soundId = gvrAudioEngine.createSoundObject(SOUND_FILE);
-                gvrAudioEngine.setSoundObjectPosition(
-                    soundId, modelPosition[0], modelPosition[1], modelPosition[2]);
-                gvrAudioEngine.playSound(soundId, true /* looped playback */);
-              }
-            })
-        .start();
-
-    updateModelPosition();
+    stereoTreasureProgram = null;
+    stereoFloorProgram = null;
+    if (singlePassSources != null && SinglePassStereo.isContextSupported(gl)) {
+      createSinglePassPrograms();
+    }
+    programCache.pruneUnused();
+
+    // Uploads the meshes and texture now if they are already built.
+    assetLoader.runGlTasks();
 
     checkGLError("onSurfaceCreated");
   }
 
   /**
-   * Updates the cube model position.
+   * Builds the single-pass versions of the treasure and floor programs. Failure isn't fatal: the
+   * eyes are then drawn one at a time.
+   */
+  private void createSinglePassPrograms() {
+    try {
+      // Translated on a loader thread; a translation failure surfaces here.
+      String[] sources = singlePassSources.getResult();
+      stereoTreasureProgram = new TreasureRenderer.Program(
+          gl, programCache.getProgram(sources[3], sources[2]), glState, true);
+      stereoFloorProgram = new FloorRenderer.Program(
+          gl, programCache.getProgram(sources[0], sources[1]), glState, true);
+      checkGLError("Single-pass programs");
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Single-pass stereo unavailable, drawing each eye separately", e);
+      stereoTreasureProgram = null;
+      stereoFloorProgram = null;
+    }
+  }
+
+  /**
+   * Updates a treasure's position.
    */
-  protected void updateModelPosition() {
-    Matrix.setIdentityM(modelCube, 0);
-    Matrix.translateM(modelCube, 0, modelPosition[0], modelPosition[1], modelPosition[2]);
+  protected void moveTreasure(int treasure, float x, float y, float z) {
+    treasures.setPosition(treasure, x, y, z);
+    gazePicker.update(treasure);
 
     // Update the sound location to match it with the new cube position.
-    if (soundId != GvrAudioEngine.INVALID_ID) {
-      gvrAudioEngine.setSoundObjectPosition(
-          soundId, modelPosition[0], modelPosition[1], modelPosition[2]);
+    if (treasure == SOUND_TREASURE && soundId != GvrAudioEngine.INVALID_ID) {
+      gvrAudioEngine.setSoundObjectPosition(soundId, x, y, z);
     }
-    checkGLError("updateCubePosition");
   }
 
   /**
@@ -545,7 +723,7 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
   }
 
   protected void setCubeRotation() {
-    Matrix.rotateM(modelCube, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+    FrameMath.spin(treasureSpin);
   }
 
   /**
@@ -555,99 +733,167 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
    */
   @Override
   public void onDrawEye(Eye eye) {
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+    frameTimings.start(FrameTimings.DRAW_EYE);
+    drawEye(eye);
+    frameTimings.stop(FrameTimings.DRAW_EYE);
+  }
 
-    checkGLError("colorParam");
+  private void drawEye(Eye eye) {
+    glState.enable(GlDevice.GL_DEPTH_TEST);
+    gl.glClear(GlDevice.GL_COLOR_BUFFER_BIT | GlDevice.GL_DEPTH_BUFFER_BIT);
 
-    // Apply the eye transformation to the camera.
-    Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
+    glDiagnostics.check("colorParam");
+    if (!geometry.isCreated()) {
+      return;
+    }
 
-    // Set the position of the light
-    Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+    // Apply the eye transformation to the camera, and move the light into the eye's space.
+    float[] perspective = eye.getPerspective(FrameMath.Z_NEAR, FrameMath.Z_FAR);
+    FrameMath.eye(eye.getEyeView(), perspective, frame.camera, frame.lightPosInWorldSpace,
+        view, viewProjection, 0, lightPosInEyeSpace, eyeFrustums[0]);
 
-    // Build the ModelView and ModelViewProjection matrices
-    // for calculating cube position and light.
-    float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
-    Matrix.multiplyMM(modelView, 0, view, 0, modelCube, 0);
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-    drawCube();
+    // Draw the treasures in this eye's view. They apply their own model transforms.
+    treasureRenderer.cull(eyeFrustums[0], null);
+    frameTimings.start(FrameTimings.DRAW_TREASURES);
+    treasureRenderer.draw(treasureProgram, frame.treasureSpin, 1, view, viewProjection,
+        lightPosInEyeSpace, null, frame.gazedTreasure);
+    frameTimings.stop(FrameTimings.DRAW_TREASURES);
+    glDiagnostics.check("Drawing treasures");
 
     // Set modelView for the floor, so we draw floor in the correct location
-    Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-    drawFloor();
+    FrameMath.modelViewProjection(
+        view, perspective, 0, frame.modelFloor, modelView, modelViewProjection);
+    frameTimings.start(FrameTimings.DRAW_FLOOR);
+    floorRenderer.draw(floorProgram, 1, modelView, modelViewProjection, lightPosInEyeSpace, null);
+    frameTimings.stop(FrameTimings.DRAW_FLOOR);
+    glDiagnostics.check("drawing floor");
+
+    geometry.unbind();
   }
 
-  @Override
-  public void onFinishFrame(Viewport viewport) {}
-
   /**
-   * Draw the cube.
+   * Draws a whole frame, when GvrView was given this activity as a {@link GvrView.Renderer}.
    *
-   * <p>We've set all of our transformation matrices. Now we simply pass them into the shader.
+   * <p>Both eyes are drawn in a single pass if the single-pass programs could be built. Otherwise
+   * each eye is drawn in turn, just as GvrView does for a {@link GvrView.StereoRenderer}.
+   *
+   * @param rightEye The right eye, or null when not drawing in stereo.
    */
-  public void drawCube() {
-    GLES20.glUseProgram(cubeProgram);
+  @Override
+  public void onDrawFrame(HeadTransform headTransform, Eye leftEye, Eye rightEye) {
+    onNewFrame(headTransform);
+    if (rightEye != null && stereoTreasureProgram != null) {
+      frameTimings.start(FrameTimings.DRAW_BOTH_EYES);
+      drawBothEyes(leftEye, rightEye);
+      frameTimings.stop(FrameTimings.DRAW_BOTH_EYES);
+      return;
+    }
 
-    GLES20.glUniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
+    glState.enable(GlDevice.GL_SCISSOR_TEST);
+    drawEyeInViewport(leftEye);
+    if (rightEye != null) {
+      drawEyeInViewport(rightEye);
+    }
+  }
 
-    // Set the Model in the shader, used to calculate lighting
-    GLES20.glUniformMatrix4fv(cubeModelParam, 1, false, modelCube, 0);
+  private void drawEyeInViewport(Eye eye) {
+    eye.getViewport().setGLViewport();
+    eye.getViewport().setGLScissor();
+    onDrawEye(eye);
+  }
 
-    // Set the ModelView in the shader, used to calculate lighting
-    GLES20.glUniformMatrix4fv(cubeModelViewParam, 1, false, modelView, 0);
+  /**
+   * Draws the scene for both eyes at once: each mesh is drawn with one instance per eye, over a
+   * viewport covering both.
+   */
+  private void drawBothEyes(Eye leftEye, Eye rightEye) {
+    copyViewport(leftEye.getViewport(), leftViewport);
+    copyViewport(rightEye.getViewport(), rightViewport);
+    SinglePassStereo.computeViewports(leftViewport, rightViewport, stereoViewport, eyeViewports);
+    gl.glViewport(stereoViewport[0], stereoViewport[1], stereoViewport[2], stereoViewport[3]);
+    glState.enable(GlDevice.GL_SCISSOR_TEST);
+    gl.glScissor(stereoViewport[0], stereoViewport[1], stereoViewport[2], stereoViewport[3]);
+    glState.enable(GlDevice.GL_DEPTH_TEST);
+    gl.glClear(GlDevice.GL_COLOR_BUFFER_BIT | GlDevice.GL_DEPTH_BUFFER_BIT);
+    if (!geometry.isCreated()) {
+      return;
+    }
 
-    // Set the position of the cube
-    GLES20.glVertexAttribPointer(
-        cubePositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, cubeVertices);
+    for (int i = 0; i < SinglePassStereo.EYE_COUNT; i++) {
+      Eye eye = i == 0 ? leftEye : rightEye;
+      float[] perspective = eye.getPerspective(FrameMath.Z_NEAR, FrameMath.Z_FAR);
+      FrameMath.eye(eye.getEyeView(), perspective, frame.camera, frame.lightPosInWorldSpace,
+          eyeViews, eyeViewProjections, 16 * i, lightPosInEyeSpace, eyeFrustums[i]);
+      System.arraycopy(lightPosInEyeSpace, 0, eyeLightPositions, 3 * i, 3);
+      System.arraycopy(perspective, 0, eyePerspectives, 16 * i, 16);
+    }
 
-    // Set the ModelViewProjection matrix in the shader.
-    GLES20.glUniformMatrix4fv(cubeModelViewProjectionParam, 1, false, modelViewProjection, 0);
+    // Anything visible to either eye is drawn for both; the other eye's copy is discarded.
+    treasureRenderer.cull(eyeFrustums[0], eyeFrustums[1]);
+    frameTimings.start(FrameTimings.DRAW_TREASURES);
+    treasureRenderer.draw(stereoTreasureProgram, frame.treasureSpin, SinglePassStereo.EYE_COUNT,
+        eyeViews, eyeViewProjections, eyeLightPositions, eyeViewports, frame.gazedTreasure);
+    frameTimings.stop(FrameTimings.DRAW_TREASURES);
+    glDiagnostics.check("Drawing treasures for both eyes");
+    frameTimings.start(FrameTimings.DRAW_FLOOR);
+    drawFloorForBothEyes(stereoFloorProgram);
+    frameTimings.stop(FrameTimings.DRAW_FLOOR);
+
+    geometry.unbind();
+  }
+
+  /** Copies x, y, width and height of {@code viewport} into {@code out}. */
+  private static void copyViewport(Viewport viewport, int[] out) {
+    out[0] = viewport.x;
+    out[1] = viewport.y;
+    out[2] = viewport.width;
+    out[3] = viewport.height;
+  }
 
-    // Set the normal positions of the cube, again for shading
-    GLES20.glVertexAttribPointer(cubeNormalParam, 3, GLES20.GL_FLOAT, false, 0, cubeNormals);
-    GLES20.glVertexAttribPointer(cubeColorParam, 4, GLES20.GL_FLOAT, false, 0,
-        isLookingAtObject() ? cubeFoundColors : cubeColors);
+  private void drawFloorForBothEyes(FloorRenderer.Program program) {
+    float[] model = frame.modelFloor;
+    for (int i = 0; i < SinglePassStereo.EYE_COUNT; i++) {
+      FrameMath.modelViewProjection(
+          eyeViews, eyePerspectives, 16 * i, model, eyeModelViews, eyeModelViewProjections);
+    }
+    floorRenderer.draw(program, SinglePassStereo.EYE_COUNT, eyeModelViews,
+        eyeModelViewProjections, eyeLightPositions, eyeViewports);
+    glDiagnostics.check("Drawing both eyes");
+  }
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(cubePositionParam);
-    GLES20.glEnableVertexAttribArray(cubeNormalParam);
-    GLES20.glEnableVertexAttribArray(cubeColorParam);
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-    checkGLError("Drawing cube");
+  @Override
+  public void onFinishFrame(Viewport viewport) {
+    frameTimings.start(FrameTimings.FINISH_FRAME);
+    updateResolution();
+    frameTimings.stop(FrameTimings.FINISH_FRAME);
   }
 
   /**
-   * Draw the floor.
+   * Hands the frame's timing to the resolution governor, and applies the scale it picks.
    *
-   * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
-   * position of the light, so if we rewrite our code to draw the floor first, the lighting might
-   * look strange.
+   * <p>The frame's CPU time runs from the start of {@link #onNewFrame} to here; its interval from
+   * the start of the previous frame shows whether it missed a vsync.
    */
-  public void drawFloor() {
-    GLES20.glUseProgram(floorProgram);
-
-    // Set ModelView, MVP, position, normals, and color.
-    GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-    GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
-    GLES20.glVertexAttribPointer(
-        floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, floorVertices);
-    GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
-    GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
-
-    GLES20.glEnableVertexAttribArray(floorPositionParam);
-    GLES20.glEnableVertexAttribArray(floorNormalParam);
-    GLES20.glEnableVertexAttribArray(floorColorParam);
-
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 24);
-
-    checkGLError("drawing floor");
+  private void updateResolution() {
+    long cpuNanos = SystemClock.elapsedRealtimeNanos() - frameStartNanos;
+    long intervalNanos = lastFrameStartNanos == 0 ? 0 : frameStartNanos - lastFrameStartNanos;
+    lastFrameStartNanos = frameStartNanos;
+    final float scale = resolutionGovernor.onFrame(intervalNanos, cpuNanos);
+    if (scale == resolutionScale) {
+      return;
+    }
+    resolutionScale = scale;
+    // GvrView reallocates the render targets before the next frame.
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        getGvrView().setDistortionCorrectionScale(scale);
+      }
+    });
   }
 
+
   /**
    * Called when the Cardboard trigger is pulled.
    */
@@ -655,8 +901,18 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
   public void onCardboardTrigger() {
     Log.i(TAG, "onCardboardTrigger");
 
-    if (isLookingAtObject()) {
-      hideObject();
+    // Runs on the UI thread: read the gaze result of the frame on screen, and move the treasure on
+    // the GL thread, which owns it.
+    FrameState shown = publishedFrame;
+    if (shown != null && shown.gazedTreasure >= 0) {
+      final int treasure = shown.gazedTreasure;
+      getGvrView().queueEvent(
+          new Runnable() {
+            @Override
+            public void run() {
+              hideObject(treasure);
+            }
+          });
     }
 
     // Always give user feedback.
@@ -664,49 +920,12 @@ public class TreasureHuntActivity extends GvrActivity implements GvrView.StereoR
   }
 
   /**
-   * Find a new random position for the object.
+   * Find a new random position for a treasure.
    *
    * <p>We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
    */
-  protected void hideObject() {
-    float[] rotationMatrix = new float[16];
-    float[] posVec = new float[4];
-
-    // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
-    // the object's distance from the user.
-    float angleXZ = (float) Math.random() * 180 + 90;
-    Matrix.setRotateM(rotationMatrix, 0, angleXZ, 0f, 1f, 0f);
-    float oldObjectDistance = objectDistance;
-    objectDistance =
-        (float) Math.random() * (MAX_MODEL_DISTANCE - MIN_MODEL_DISTANCE) + MIN_MODEL_DISTANCE;
-    float objectScalingFactor = objectDistance / oldObjectDistance;
-    Matrix.scaleM(rotationMatrix, 0, objectScalingFactor, objectScalingFactor, objectScalingFactor);
-    Matrix.multiplyMV(posVec, 0, rotationMatrix, 0, modelCube, 12);
-
-    float angleY = (float) Math.random() * 80 - 40; // Angle in Y plane, between -40 and 40.
-    angleY = (float) Math.toRadians(angleY);
-    float newY = (float) Math.tan(angleY) * objectDistance;
-
-    modelPosition[0] = posVec[0];
-    modelPosition[1] = newY;
-    modelPosition[2] = posVec[2];
-
-    updateModelPosition();
-  }
-
-  /**
-   * Check if user is looking at object by calculating where the object is in eye-space.
-   *
-   * @return true if the user is looking at the object.
-   */
-  private boolean isLookingAtObject() {
-    // Convert object space to camera space. Use the headView from onNewFrame.
-    Matrix.multiplyMM(modelView, 0, headView, 0, modelCube, 0);
-    Matrix.multiplyMV(tempPosition, 0, modelView, 0, POS_MATRIX_MULTIPLY_VEC, 0);
-
-    float pitch = (float) Math.atan2(tempPosition[1], -tempPosition[2]);
-    float yaw = (float) Math.atan2(tempPosition[0], -tempPosition[2]);
-
-    return Math.abs(pitch) < PITCH_LIMIT && Math.abs(yaw) < YAW_LIMIT;
+  protected void hideObject(int treasure) {
+    FrameMath.hiddenPosition(treasures.getX(treasure), treasures.getZ(treasure), treasurePosition);
+    moveTreasure(treasure, treasurePosition[0], treasurePosition[1], treasurePosition[2]);
   }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Culls and draws the treasures of a {@link TreasureField}.
+ *
+ * <p>Treasures are drawn in batches rather than one call each. The treasure mesh holds
+ * {@link SceneGeometry#TREASURE_BATCH_SIZE} copies of the cube; the vertex shader looks up the
+ * position of its copy's treasure in a uniform array, so one draw call covers a whole batch. This
+ * works on OpenGL ES 2.0, which has no instancing, and leaves instancing free to pick the eye in
+ * single-pass stereo. The number of draw calls is the number of visible treasures divided by the
+ * batch size.
+ *
+ * <p>Only the treasures that {@link #cull} finds may be visible are drawn. In single-pass stereo
+ * that is the treasures visible in either eye.
+ *
+ * <p>Must only be used on the GL thread.
+ */
+final class TreasureRenderer {
+
+  /** The uniforms of the treasure vertex shader that differ between the eyes. */
+  static final String[] PER_EYE_UNIFORMS = {"u_View", "u_ViewProjection", "u_LightPos"};
+
+  private static final int BATCH_SIZE = SceneGeometry.TREASURE_BATCH_SIZE;
+
+  private final GlStateCache state;
+  private final SceneGeometry geometry;
+  private final TreasureField field;
+
+  // Indices of the treasures found by the last cull.
+  private final int[] visible;
+  private int visibleCount;
+  // The u_Treasures values of one batch.
+  private final float[] batch = new float[4 * BATCH_SIZE];
+
+  // For the summary; written on the GL thread, so reads from other threads are approximate.
+  private int lastVisibleCount;
+  private int lastDrawCalls;
+
+  TreasureRenderer(GlStateCache state, SceneGeometry geometry, TreasureField field) {
+    this.state = state;
+    this.geometry = geometry;
+    this.field = field;
+    visible = new int[field.getCapacity()];
+  }
+
+  /** Adds the definitions the treasure vertex shader expects to its source. */
+  static String defineBatchSize(String source) {
+    return "#define BATCH_SIZE " + BATCH_SIZE + "\n" + source;
+  }
+
+  /**
+   * Finds the treasures that may be visible in either of two frusta, for the next {@link #draw}.
+   *
+   * @param other The other eye's frustum when drawing both eyes at once, or null.
+   * @return The number of treasures that may be visible.
+   */
+  int cull(Frustum frustum, Frustum other) {
+    visibleCount = field.cull(frustum, other, visible);
+    lastVisibleCount = visibleCount;
+    return visibleCount;
+  }
+
+  /**
+   * Draws the treasures found by the last {@link #cull}.
+   *
+   * @param spin The rotation all treasures share.
+   * @param eyes The number of eyes drawn at once: 1, or {@link SinglePassStereo#EYE_COUNT} with a
+   *     single-pass program. The per-eye arrays hold this many values, eye after eye.
+   * @param eyeViewports For a single-pass program, the eyes' viewports from
+   *     {@link SinglePassStereo#computeViewports}; otherwise ignored.
+   * @param gazedTreasure The index of the treasure the user is looking at, or -1.
+   */
+  void draw(Program program, float[] spin, int eyes, float[] views, float[] viewProjections,
+      float[] lightPositions, float[] eyeViewports, int gazedTreasure) {
+    if (visibleCount == 0) {
+      lastDrawCalls = 0;
+      return;
+    }
+    state.useProgram(program.program);
+    state.uniformMatrix4fv(program.model, 1, spin, 0);
+    state.uniformMatrix4fv(program.view, eyes, views, 0);
+    state.uniformMatrix4fv(program.viewProjection, eyes, viewProjections, 0);
+    state.uniform3fv(program.lightPos, eyes, lightPositions, 0);
+    if (eyes > 1) {
+      state.uniform4fv(program.eyeViewport, eyes, eyeViewports, 0);
+    }
+
+    int mesh = SceneGeometry.MESH_TREASURES;
+    geometry.bind(mesh);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_POSITION, program.position);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_NORMAL, program.normal);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_COLOR, program.color);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_FOUND_COLOR, program.foundColor);
+    geometry.bindAttribute(mesh, SceneGeometry.ATTRIBUTE_COPY, program.copy);
+    state.enableVertexAttribArray(program.position);
+    state.enableVertexAttribArray(program.normal);
+    state.enableVertexAttribArray(program.color);
+    state.enableVertexAttribArray(program.foundColor);
+    state.enableVertexAttribArray(program.copy);
+
+    int drawCalls = 0;
+    for (int start = 0; start < visibleCount; start += BATCH_SIZE) {
+      int copies = Math.min(BATCH_SIZE, visibleCount - start);
+      for (int i = 0; i < copies; i++) {
+        int treasure = visible[start + i];
+        batch[4 * i] = field.getX(treasure);
+        batch[4 * i + 1] = field.getY(treasure);
+        batch[4 * i + 2] = field.getZ(treasure);
+        batch[4 * i + 3] = treasure == gazedTreasure ? 1f : 0f;
+      }
+      state.uniform4fv(program.treasures, copies, batch, 0);
+      if (eyes > 1) {
+        geometry.drawCopiesInstanced(mesh, copies, eyes);
+      } else {
+        geometry.drawCopies(mesh, copies);
+      }
+      drawCalls++;
+    }
+    lastDrawCalls = drawCalls;
+
+    // The other programs don't read these, and they point into a larger buffer than theirs.
+    state.disableVertexAttribArray(program.foundColor);
+    state.disableVertexAttribArray(program.copy);
+  }
+
+  /** Appends the treasure counts and draw calls of the last frame to {@code out}. */
+  void appendSummary(StringBuilder out) {
+    out.append("treasures: visible=").append(lastVisibleCount).append('/')
+        .append(field.getCount()).append(" draws=").append(lastDrawCalls);
+  }
+
+  /** Attribute locations and {@link GlStateCache} uniform slots of a treasure program. */
+  static final class Program {
+    final int program;
+    final int position;
+    final int normal;
+    final int color;
+    final int foundColor;
+    final int copy;
+    final int model;
+    final int view;
+    final int viewProjection;
+    final int lightPos;
+    final int treasures;
+    // Only set for single-pass programs.
+    final int eyeViewport;
+
+    /**
+     * @param singlePass Whether the program was built with
+     *     {@link SinglePassStereo#translateVertexShader} from {@link #PER_EYE_UNIFORMS}.
+     */
+    Program(GlDevice gl, int program, GlStateCache state, boolean singlePass) {
+      this.program = program;
+      position = gl.glGetAttribLocation(program, "a_Position");
+      normal = gl.glGetAttribLocation(program, "a_Normal");
+      color = gl.glGetAttribLocation(program, "a_Color");
+      foundColor = gl.glGetAttribLocation(program, "a_FoundColor");
+      copy = gl.glGetAttribLocation(program, "a_Copy");
+      int eyes = singlePass ? SinglePassStereo.EYE_COUNT : 1;
+      model = state.registerUniform(program, "u_Model", 16);
+      view = state.registerUniform(program, eyeUniform("u_View", singlePass), 16 * eyes);
+      viewProjection =
+          state.registerUniform(program, eyeUniform("u_ViewProjection", singlePass), 16 * eyes);
+      lightPos = state.registerUniform(program, eyeUniform("u_LightPos", singlePass), 3 * eyes);
+      treasures = state.registerUniform(program, "u_Treasures", 4 * BATCH_SIZE);
+      eyeViewport = singlePass
+          ? state.registerUniform(program, SinglePassStereo.EYE_VIEWPORT_UNIFORM, 4 * eyes)
+          : -1;
+    }
+
+    private static String eyeUniform(String name, boolean singlePass) {
+      return singlePass ? SinglePassStereo.perEye(name) : name;
+    }
+  }
+}
@@ -221,93 +221,8 @@ public final class WorldLayoutData {
       0.0f, -1.0f, 0.0f
   };
 
-  // The grid lines on the floor are rendered procedurally and large polygons cause floating point
-  // precision problems on some architectures. So we split the floor into 4 quadrants.
-  public static final float[] FLOOR_COORDS = new float[] {
-      // +X, +Z quadrant
-      200, 0, 0,
-      0, 0, 0,
-      0, 0, 200,
-      200, 0, 0,
-      0, 0, 200,
-      200, 0, 200,
+  // The floor is flat and a single color; FloorClipmap lays out its tiles.
+  public static final float[] FLOOR_NORMAL = new float[] {0.0f, 1.0f, 0.0f};
 
-      // -X, +Z quadrant
-      0, 0, 0,
-      -200, 0, 0,
-      -200, 0, 200,
-      0, 0, 0,
-      -200, 0, 200,
-      0, 0, 200,
-
-      // +X, -Z quadrant
-      200, 0, -200,
-      0, 0, -200,
-      0, 0, 0,
-      200, 0, -200,
-      0, 0, 0,
-      200, 0, 0,
-
-      // -X, -Z quadrant
-      0, 0, -200,
-      -200, 0, -200,
-      -200, 0, 0,
-      0, 0, -200,
-      -200, 0, 0,
-      0, 0, 0,
-  };
-
-  public static final float[] FLOOR_NORMALS = new float[] {
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-  };
-
-  public static final float[] FLOOR_COLORS = new float[] {
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-  };
+  public static final float[] FLOOR_COLOR = new float[] {0.0f, 0.3398f, 0.9023f, 1.0f};
 }
@@ -1,4 +1,3 @@
-uniform mat4 u_Model;
 uniform mat4 u_MVP;
 uniform mat4 u_MVMatrix;
 uniform vec3 u_LightPos;
@@ -6,12 +5,14 @@ uniform vec3 u_LightPos;
 attribute vec4 a_Position;
 attribute vec4 a_Color;
 attribute vec3 a_Normal;
+attribute vec2 a_GridCoord;
 
 varying vec4 v_Color;
-varying vec3 v_Grid;
+varying vec4 v_LineColor;
+varying vec2 v_GridCoord;
 
 void main() {
-   v_Grid = vec3(u_Model * a_Position);
+   v_GridCoord = a_GridCoord;
 
    vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);
    vec3 modelViewNormal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
@@ -22,5 +23,7 @@ void main() {
 
    diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
    v_Color = a_Color * diffuse;
+   // Grid lines are white up close and fade into the floor color with distance.
+   v_LineColor = mix(vec4(1.0, 1.0, 1.0, 1.0), v_Color, min(1.0, length(modelViewVertex) / 90.0));
    gl_Position = u_MVP * a_Position;
 }
@@ -0,0 +1,31 @@
+// BATCH_SIZE is defined by the app, as the number of treasures drawn per call.
+uniform mat4 u_Model;
+uniform mat4 u_View;
+uniform mat4 u_ViewProjection;
+uniform vec3 u_LightPos;
+// Per treasure: position in xyz, and 1.0 in w if the user is looking at it.
+uniform vec4 u_Treasures[BATCH_SIZE];
+
+attribute vec4 a_Position;
+attribute vec4 a_Color;
+attribute vec4 a_FoundColor;
+attribute vec3 a_Normal;
+attribute float a_Copy;
+
+varying vec4 v_Color;
+
+void main() {
+   vec4 treasure = u_Treasures[int(a_Copy)];
+   vec4 worldVertex = u_Model * a_Position + vec4(treasure.xyz, 0.0);
+
+   vec3 modelViewVertex = vec3(u_View * worldVertex);
+   vec3 modelViewNormal = vec3(u_View * (u_Model * vec4(a_Normal, 0.0)));
+
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   v_Color = mix(a_Color, a_FoundColor, treasure.w) * diffuse;
+   gl_Position = u_ViewProjection * worldVertex;
+}